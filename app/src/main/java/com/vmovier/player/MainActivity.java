@@ -4,8 +4,10 @@ import android.content.Intent;
 import android.os.Bundle;
 import android.support.annotation.Nullable;
 import android.support.v7.app.AppCompatActivity;
+import android.widget.Toast;
 
 import com.magicbox.vmovierplayer.R;
+import com.vmovier.lib.utils.PlayerLog;
 import com.vmovier.player.recycler.BasicViewRecyclerActivity;
 import com.vmovier.player.recycler.VMovieVideoViewRecyclerActivity;
 
@@ -17,6 +19,7 @@ import butterknife.OnClick;
  */
 
 public class MainActivity extends AppCompatActivity {
+    private static final String TAG = MainActivity.class.getSimpleName();
 
     @Override
     protected void onCreate(@Nullable Bundle savedInstanceState) {
@@ -72,4 +75,25 @@ public class MainActivity extends AppCompatActivity {
     void Essay() {
         startActivity(new Intent(MainActivity.this, EssayDetailActivity.class));
     }
+
+    @OnClick(R.id.StateMachineBenchmark)
+    void StateMachineBenchmark() {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final StateMachineBenchmark.Result result = StateMachineBenchmark.run(30000, 5);
+                    PlayerLog.d(TAG, result.toString());
+                    runOnUiThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Toast.makeText(MainActivity.this, result.toString(), Toast.LENGTH_LONG).show();
+                        }
+                    });
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, "sm-benchmark-runner").start();
+    }
 }
@@ -0,0 +1,199 @@
+package com.vmovier.player;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.support.annotation.NonNull;
+
+import com.vmovier.lib.player.hsm.State;
+import com.vmovier.lib.player.hsm.StateMachine;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * 测量 StateMachine 处理每条消息的耗时, 对比是否使用 StateMachine#setUseTransitionTable(boolean).
+ *
+ * 状态层级与 VMoviePlayer 相同: Default - Working - Prepared - Playing/Pausing.
+ * 消息分三种, 各占三分之一: 栈顶状态直接处理, 一直交给根状态处理, 以及在 Playing 和 Pausing 之间切换.
+ * 消息全部入队以后才放开 Looper, 只统计处理消息的时间, 不包括入队. 关闭了调试日志, 否则耗时主要是打印日志.
+ *
+ * 各个状态的 processMessage 仍然是 switch, 编译后本身就是按照 what 索引的跳转表, 这里不再单独建表.
+ *
+ * 需要在设备上运行, 会阻塞调用线程, 不能在主线程调用.
+ */
+@SuppressWarnings("WeakerAccess")
+class StateMachineBenchmark {
+    private static final int MSG_LEAF = 1;
+    private static final int MSG_ROOT = 2;
+    private static final int MSG_TOGGLE = 3;
+    private static final int MSG_DONE = 4;
+
+    public static class Result {
+        // 不使用切换表时 每条消息耗时的中位数
+        public final long directNsPerMessage;
+        // 使用切换表时 每条消息耗时的中位数
+        public final long tableNsPerMessage;
+
+        Result(long directNsPerMessage, long tableNsPerMessage) {
+            this.directNsPerMessage = directNsPerMessage;
+            this.tableNsPerMessage = tableNsPerMessage;
+        }
+
+        @Override
+        public String toString() {
+            return "StateMachineBenchmark direct " + directNsPerMessage + " ns/msg , table "
+                    + tableNsPerMessage + " ns/msg";
+        }
+    }
+
+    /**
+     * @param messageCount 每一轮的消息数量
+     * @param rounds 每种模式的轮数, 另外各有一轮预热不计入结果
+     */
+    static @NonNull Result run(int messageCount, int rounds) throws InterruptedException {
+        HandlerThread thread = new HandlerThread("sm-benchmark");
+        thread.start();
+        try {
+            Looper looper = thread.getLooper();
+            runRound(looper, false, messageCount);
+            runRound(looper, true, messageCount);
+            long[] direct = new long[rounds];
+            long[] table = new long[rounds];
+            // 交替运行, 减少设备频率变化的影响.
+            for (int i = 0; i < rounds; i++) {
+                direct[i] = runRound(looper, false, messageCount);
+                table[i] = runRound(looper, true, messageCount);
+            }
+            return new Result(median(direct), median(table));
+        } finally {
+            thread.quit();
+        }
+    }
+
+    /**
+     * @return 每条消息的耗时
+     */
+    private static long runRound(Looper looper, boolean useTable, int messageCount) throws InterruptedException {
+        BenchmarkMachine machine = new BenchmarkMachine(looper, useTable);
+        machine.startStateMachine();
+        // 等待初始化完成.
+        machine.await(machine.sendDone());
+
+        final CountDownLatch gate = new CountDownLatch(1);
+        new Handler(looper).post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        for (int i = 0; i < messageCount; i++) {
+            switch (i % 3) {
+                case 0:
+                    machine.sendMessage(MSG_LEAF);
+                    break;
+                case 1:
+                    machine.sendMessage(MSG_ROOT);
+                    break;
+                default:
+                    machine.sendMessage(MSG_TOGGLE);
+                    break;
+            }
+        }
+        CountDownLatch done = machine.sendDone();
+        long start = System.nanoTime();
+        gate.countDown();
+        machine.await(done);
+        machine.quitMachine();
+        return (machine.mEndNs - start) / Math.max(1, messageCount);
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted.length == 0 ? 0 : sorted[sorted.length / 2];
+    }
+
+    private static class BenchmarkMachine extends StateMachine {
+        private final State mPlayingState = new LeafState();
+        private final State mPausingState = new LeafState();
+        private volatile CountDownLatch mDoneLatch;
+        private volatile long mEndNs;
+
+        BenchmarkMachine(Looper looper, boolean useTable) {
+            super("StateMachineBenchmark", looper);
+            setDbg(false);
+            State defaultState = new DefaultState();
+            State workingState = new WorkingState();
+            State preparedState = new PreparedState();
+            addState(defaultState);
+            addState(workingState, defaultState);
+            addState(preparedState, workingState);
+            addState(mPlayingState, preparedState);
+            addState(mPausingState, preparedState);
+            setInitialState(mPlayingState);
+            setUseTransitionTable(useTable);
+        }
+
+        CountDownLatch sendDone() {
+            CountDownLatch latch = new CountDownLatch(1);
+            mDoneLatch = latch;
+            sendMessage(MSG_DONE);
+            return latch;
+        }
+
+        void await(CountDownLatch latch) throws InterruptedException {
+            latch.await();
+        }
+
+        void quitMachine() {
+            quitNow();
+        }
+
+        private class DefaultState extends State {
+            @Override
+            public boolean processMessage(Message msg) {
+                switch (msg.what) {
+                    case MSG_ROOT:
+                        return HANDLED;
+                    case MSG_DONE:
+                        mEndNs = System.nanoTime();
+                        mDoneLatch.countDown();
+                        return HANDLED;
+                }
+                return NOT_HANDLED;
+            }
+        }
+
+        private class WorkingState extends State {
+        }
+
+        private class PreparedState extends State {
+            @Override
+            public boolean processMessage(Message msg) {
+                switch (msg.what) {
+                    case MSG_TOGGLE:
+                        transitionTo(getCurrentState() == mPlayingState ? mPausingState : mPlayingState);
+                        return HANDLED;
+                }
+                return NOT_HANDLED;
+            }
+        }
+
+        private class LeafState extends State {
+            @Override
+            public boolean processMessage(Message msg) {
+                switch (msg.what) {
+                    case MSG_LEAF:
+                        return HANDLED;
+                }
+                return NOT_HANDLED;
+            }
+        }
+    }
+}
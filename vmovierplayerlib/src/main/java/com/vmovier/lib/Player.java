@@ -1,11 +1,13 @@
 package com.vmovier.lib;
 
 import android.content.Context;
-import android.os.HandlerThread;
 import android.os.Looper;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
+import com.vmovier.lib.player.DecoderBudget;
+import com.vmovier.lib.player.MemoryGovernor;
+import com.vmovier.lib.player.internal.PlayerNetwork;
 import com.vmovier.lib.utils.ConnectionUtils;
 
 
@@ -15,25 +17,47 @@ import com.vmovier.lib.utils.ConnectionUtils;
  */
 public class Player {
     private static Looper mStateMachineLooper;
+    private static StateMachineLooperPool mLooperPool;
 
     public static void init(@NonNull Context context) {
-        init(context, null);
+        init(context, (Looper) null);
     }
 
     public static void init (@NonNull Context context,
                              @Nullable Looper looper) {
-        ConnectionUtils.init(context);
         // 初始化播放器所需要的Looper.
         if (looper == null) {
-            HandlerThread handlerThread = new HandlerThread("player");
-            handlerThread.start();
-            mStateMachineLooper = handlerThread.getLooper();
+            initWithPool(context, new StateMachineLooperPool(1, StateMachineLooperPool.ROUND_ROBIN));
         } else {
-            mStateMachineLooper = looper;
+            initWithPool(context, new StateMachineLooperPool(looper));
         }
+    }
 
+    /**
+     * 多个播放器同时存在时, 使用多个 Looper 运行状态机.
+     * @param looperCount Looper 的数量
+     * @param policy 播放器分配到 Looper 的策略, 见 {@link StateMachineLooperPool#ROUND_ROBIN} 等
+     */
+    public static void init(@NonNull Context context, int looperCount,
+                            @NonNull StateMachineLooperPool.AssignmentPolicy policy) {
+        initWithPool(context, new StateMachineLooperPool(looperCount, policy));
+    }
+
+    private static void initWithPool(@NonNull Context context, @NonNull StateMachineLooperPool pool) {
+        ConnectionUtils.init(context);
+        mLooperPool = pool;
+        mStateMachineLooper = pool.getShard(0).getLooper();
+        // 所有播放器共享的网络层
+        PlayerNetwork.init(context, mStateMachineLooper);
+        // 内存不足时逐级释放播放器
+        MemoryGovernor.init(context);
+        // 读取或者探测硬件解码器的数量上限
+        DecoderBudget.init(context);
     }
 
+    /**
+     * @return 第一个状态机 Looper, 多个 Looper 时请使用 {@link #getLooperPool()}
+     */
     public static @NonNull Looper getStateMachineLooper() {
         if (mStateMachineLooper == null) {
             throw new IllegalArgumentException("You must init first.");
@@ -41,4 +65,11 @@ public class Player {
         return mStateMachineLooper;
     }
 
+    public static @NonNull StateMachineLooperPool getLooperPool() {
+        if (mLooperPool == null) {
+            throw new IllegalArgumentException("You must init first.");
+        }
+        return mLooperPool;
+    }
+
 }
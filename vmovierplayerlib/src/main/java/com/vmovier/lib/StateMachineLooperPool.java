@@ -0,0 +1,165 @@
+package com.vmovier.lib;
+
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+
+import com.vmovier.lib.player.hsm.LooperStats;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 播放器状态机所使用的 Looper 池. 每个 Looper 是一个分片 (shard), 创建播放器时按照分配策略选择其中一个.
+ * 多个播放器同时存在时 (比如列表, 宫格), 某个播放器处理耗时的消息 (比如 release) 不会阻塞其它分片上的播放器.
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public class StateMachineLooperPool {
+
+    /**
+     * 分配策略.
+     */
+    public interface AssignmentPolicy {
+        /**
+         * @param shards 所有分片
+         * @param affinityKey 播放器的亲和 key
+         * @return 选中的分片位置
+         */
+        int select(@NonNull Shard[] shards, int affinityKey);
+    }
+
+    /** 轮流分配 */
+    public static final AssignmentPolicy ROUND_ROBIN = new AssignmentPolicy() {
+        private final AtomicInteger mNext = new AtomicInteger();
+
+        @Override
+        public int select(@NonNull Shard[] shards, int affinityKey) {
+            return (mNext.getAndIncrement() & Integer.MAX_VALUE) % shards.length;
+        }
+    };
+
+    /** 分配给当前负载最小的分片: 依次比较 队列深度, 是否正在处理消息, 状态机数量 */
+    public static final AssignmentPolicy LEAST_LOADED = new AssignmentPolicy() {
+        @Override
+        public int select(@NonNull Shard[] shards, int affinityKey) {
+            int best = 0;
+            for (int i = 1; i < shards.length; i++) {
+                if (compareLoad(shards[i].getStats(), shards[best].getStats()) < 0) {
+                    best = i;
+                }
+            }
+            return best;
+        }
+
+        private int compareLoad(LooperStats a, LooperStats b) {
+            if (a.getQueueDepth() != b.getQueueDepth()) {
+                return a.getQueueDepth() < b.getQueueDepth() ? -1 : 1;
+            }
+            boolean aBusy = a.getCurrentDispatchTimeMs() > 0;
+            boolean bBusy = b.getCurrentDispatchTimeMs() > 0;
+            if (aBusy != bBusy) {
+                return aBusy ? 1 : -1;
+            }
+            return a.getStateMachineCount() - b.getStateMachineCount();
+        }
+    };
+
+    /** 按照 affinityKey 固定分配, 相同 key 的播放器总是在同一个分片上 */
+    public static final AssignmentPolicy AFFINITY = new AssignmentPolicy() {
+        @Override
+        public int select(@NonNull Shard[] shards, int affinityKey) {
+            return (affinityKey & Integer.MAX_VALUE) % shards.length;
+        }
+    };
+
+    /**
+     * 一个分片, 对应一个 Looper 以及它的统计.
+     */
+    public static class Shard {
+        private final Looper mLooper;
+        private final LooperStats mStats;
+
+        Shard(Looper looper, String name) {
+            this.mLooper = looper;
+            this.mStats = new LooperStats(name);
+        }
+
+        public @NonNull Looper getLooper() {
+            return mLooper;
+        }
+
+        public @NonNull LooperStats getStats() {
+            return mStats;
+        }
+    }
+
+    private final Shard[] mShards;
+    private volatile AssignmentPolicy mPolicy;
+
+    /**
+     * 创建 size 个 HandlerThread 作为分片.
+     */
+    StateMachineLooperPool(int size, @NonNull AssignmentPolicy policy) {
+        mShards = new Shard[Math.max(1, size)];
+        for (int i = 0; i < mShards.length; i++) {
+            String name = "player-" + i;
+            HandlerThread handlerThread = new HandlerThread(name);
+            handlerThread.start();
+            mShards[i] = new Shard(handlerThread.getLooper(), name);
+        }
+        mPolicy = policy;
+    }
+
+    /**
+     * 只有一个分片, 使用外部传入的 Looper.
+     */
+    StateMachineLooperPool(@NonNull Looper looper) {
+        mShards = new Shard[] {new Shard(looper, looper.getThread().getName())};
+        mPolicy = ROUND_ROBIN;
+    }
+
+    /**
+     * 为一个新的状态机选择分片, 状态机不再使用时需要调用 {@link #release(Shard)}.
+     */
+    public @NonNull Shard acquire(int affinityKey) {
+        Shard shard;
+        if (mShards.length == 1) {
+            shard = mShards[0];
+        } else {
+            int index = mPolicy.select(mShards, affinityKey);
+            shard = mShards[Math.max(0, Math.min(mShards.length - 1, index))];
+        }
+        shard.getStats().onStateMachineAttached();
+        return shard;
+    }
+
+    public void release(@NonNull Shard shard) {
+        shard.getStats().onStateMachineDetached();
+    }
+
+    /**
+     * 已经 {@link #release(Shard)} 的状态机重新开始使用原来的分片, 比如从播放器池中取出.
+     */
+    public void retain(@NonNull Shard shard) {
+        shard.getStats().onStateMachineAttached();
+    }
+
+    public void setAssignmentPolicy(@NonNull AssignmentPolicy policy) {
+        mPolicy = policy;
+    }
+
+    public @NonNull AssignmentPolicy getAssignmentPolicy() {
+        return mPolicy;
+    }
+
+    public int size() {
+        return mShards.length;
+    }
+
+    public @NonNull Shard getShard(int index) {
+        return mShards[index];
+    }
+
+    public @NonNull LooperStats getStats(int index) {
+        return mShards[index].getStats();
+    }
+}
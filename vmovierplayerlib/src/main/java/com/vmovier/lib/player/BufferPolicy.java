@@ -0,0 +1,85 @@
+package com.vmovier.lib.player;
+
+import android.support.annotation.NonNull;
+
+/**
+ * 播放器的缓冲策略, 通过 {@link IPlayer#setBufferPolicy(BufferPolicy)} 设置, 只对 EXO 生效.
+ * 时长相关的参数在下一次 prepare 时生效, 字节上限立即生效.
+ *
+ * 除了这里的字节上限, 所有播放器还共享 {@link com.vmovier.lib.player.internal.BufferBudget} 中的总预算,
+ * 按照 {@link IPlayer#setPriority(int)} 分配, 实际上限取两者中较小的一个.
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public class BufferPolicy {
+    // 与 ExoPlayer DefaultLoadControl 的默认值一致
+    public static final int DEFAULT_MIN_BUFFER_MS = 15000;
+    public static final int DEFAULT_MAX_BUFFER_MS = 30000;
+    public static final int DEFAULT_BUFFER_FOR_PLAYBACK_MS = 2500;
+    public static final int DEFAULT_BUFFER_FOR_PLAYBACK_AFTER_REBUFFER_MS = 5000;
+    public static final long UNLIMITED_BYTES = Long.MAX_VALUE;
+
+    public static final BufferPolicy DEFAULT = new BufferPolicy(DEFAULT_MIN_BUFFER_MS, DEFAULT_MAX_BUFFER_MS,
+            DEFAULT_BUFFER_FOR_PLAYBACK_MS, DEFAULT_BUFFER_FOR_PLAYBACK_AFTER_REBUFFER_MS, UNLIMITED_BYTES);
+
+    // 缓冲低于该时长时一定继续加载
+    public final int minBufferMs;
+    // 缓冲达到该时长时停止加载
+    public final int maxBufferMs;
+    // 起播需要的缓冲时长
+    public final int bufferForPlaybackMs;
+    // 卡顿之后恢复播放需要的缓冲时长
+    public final int bufferForPlaybackAfterRebufferMs;
+    // 缓冲占用内存的上限. 达到上限后, 只要够起播就不再加载
+    public final long maxBufferBytes;
+
+    public BufferPolicy(int minBufferMs, int maxBufferMs, int bufferForPlaybackMs,
+                        int bufferForPlaybackAfterRebufferMs, long maxBufferBytes) {
+        if (minBufferMs < 0 || maxBufferMs < minBufferMs || bufferForPlaybackMs < 0
+                || bufferForPlaybackAfterRebufferMs < 0 || maxBufferBytes <= 0) {
+            throw new IllegalArgumentException("Invalid buffer policy.");
+        }
+        this.minBufferMs = minBufferMs;
+        this.maxBufferMs = maxBufferMs;
+        this.bufferForPlaybackMs = bufferForPlaybackMs;
+        this.bufferForPlaybackAfterRebufferMs = bufferForPlaybackAfterRebufferMs;
+        this.maxBufferBytes = maxBufferBytes;
+    }
+
+    /**
+     * @return 只修改字节上限的新策略
+     */
+    public @NonNull BufferPolicy withMaxBufferBytes(long maxBufferBytes) {
+        return new BufferPolicy(minBufferMs, maxBufferMs, bufferForPlaybackMs,
+                bufferForPlaybackAfterRebufferMs, maxBufferBytes);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        BufferPolicy that = (BufferPolicy) o;
+        return minBufferMs == that.minBufferMs
+                && maxBufferMs == that.maxBufferMs
+                && bufferForPlaybackMs == that.bufferForPlaybackMs
+                && bufferForPlaybackAfterRebufferMs == that.bufferForPlaybackAfterRebufferMs
+                && maxBufferBytes == that.maxBufferBytes;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = minBufferMs;
+        result = 31 * result + maxBufferMs;
+        result = 31 * result + bufferForPlaybackMs;
+        result = 31 * result + bufferForPlaybackAfterRebufferMs;
+        result = 31 * result + (int) (maxBufferBytes ^ (maxBufferBytes >>> 32));
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "BufferPolicy minBufferMs is " + minBufferMs + " , maxBufferMs is " + maxBufferMs
+                + " , bufferForPlaybackMs is " + bufferForPlaybackMs
+                + " , bufferForPlaybackAfterRebufferMs is " + bufferForPlaybackAfterRebufferMs
+                + " , maxBufferBytes is " + maxBufferBytes;
+    }
+}
@@ -0,0 +1,266 @@
+package com.vmovier.lib.player;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.os.Build;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+
+import com.vmovier.lib.utils.PlayerLog;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * 硬件视频解码器的数量有限, 同时存在的播放器超过上限时, 新的播放器会因为无法创建解码器进入 ErrorState.
+ * 播放器在 prepare 时按照 {@link IPlayer#setPriority(int)} 申请解码器, 没有空闲的解码器时,
+ * 释放优先级最低 (并且低于申请者) 的播放器, 它保存状态回到 IdleState, 之后调用 play 或者重新设置 Surface 时恢复.
+ * 播放器释放底层播放器时归还解码器. 只播放音频的播放器不占用解码器.
+ *
+ * 上限在 {@link com.vmovier.lib.Player#init(Context)} 时读取缓存, 没有缓存时在后台线程中通过
+ * MediaCodecInfo.CodecCapabilities#getMaxSupportedInstances 探测一次, 按照系统版本缓存.
+ * 出现 {@link MediaError#EXO_ERROR_INSTANTIATING_DECODER} 时, 被抢占的播放器可能还没有真正释放解码器,
+ * 播放器等待 {@value #RETRY_DELAY_MS} ms 后重试一次, 仍然失败才按照实际同时使用的数量调低上限.
+ * 这样调低的上限只保存在内存中, 每隔 {@value #LIMIT_RECOVER_MS} ms 恢复一个, 直到探测或者设置的值.
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public class DecoderBudget {
+    private static final String TAG = DecoderBudget.class.getSimpleName();
+    private static final String PREFS_NAME = "vmovier_player_decoder";
+    private static final String KEY_FINGERPRINT = "fingerprint";
+    private static final String KEY_MAX_INSTANCES = "max_instances";
+
+    // 无法探测时的默认值
+    public static final int DEFAULT_MAX_INSTANCES = 4;
+    // 部分机型报告的数量明显偏大, 限制在该值以内
+    private static final int MAX_PROBED_INSTANCES = 16;
+    // 创建解码器失败后重试的等待时间
+    static final long RETRY_DELAY_MS = 1000;
+    // 因为失败调低的上限 每隔该时长恢复一个
+    private static final long LIMIT_RECOVER_MS = 5 * 60 * 1000;
+
+    private static final List<WeakReference<VMoviePlayer>> sHolders = new ArrayList<>();
+    private static SharedPreferences sPreferences;
+    // 探测, 缓存或者手动设置的上限
+    private static int sProbedMaxInstances = DEFAULT_MAX_INSTANCES;
+    // 实际使用的上限, 创建解码器失败时临时调低
+    private static int sMaxInstances = DEFAULT_MAX_INSTANCES;
+    private static long sLoweredTime = 0;
+
+    public static void init(@NonNull Context context) {
+        final SharedPreferences preferences;
+        synchronized (sHolders) {
+            if (sPreferences != null) {
+                return;
+            }
+            sPreferences = context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+            preferences = sPreferences;
+            if (Build.FINGERPRINT.equals(preferences.getString(KEY_FINGERPRINT, null))) {
+                sProbedMaxInstances = preferences.getInt(KEY_MAX_INSTANCES, DEFAULT_MAX_INSTANCES);
+                sMaxInstances = sProbedMaxInstances;
+                PlayerLog.d(TAG, "cached max instances is " + sMaxInstances);
+                return;
+            }
+        }
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            return;
+        }
+        // 遍历 MediaCodecList 比较慢, 放在后台线程.
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                int maxInstances = probeMaxInstances();
+                PlayerLog.d(TAG, "probed max instances is " + maxInstances);
+                synchronized (sHolders) {
+                    sProbedMaxInstances = maxInstances;
+                    sMaxInstances = maxInstances;
+                    persistLocked();
+                }
+            }
+        }, "decoder_probe").start();
+    }
+
+    /**
+     * 手动指定上限, 比如服务端下发的机型配置.
+     */
+    public static void setMaxInstances(int maxInstances) {
+        synchronized (sHolders) {
+            sProbedMaxInstances = Math.max(1, maxInstances);
+            sMaxInstances = sProbedMaxInstances;
+            persistLocked();
+        }
+    }
+
+    public static int getMaxInstances() {
+        synchronized (sHolders) {
+            recoverLocked();
+            return sMaxInstances;
+        }
+    }
+
+    /**
+     * @return 当前占用解码器的播放器数量
+     */
+    public static int getHolderCount() {
+        synchronized (sHolders) {
+            pruneLocked();
+            return sHolders.size();
+        }
+    }
+
+    /**
+     * 在 player 的状态机线程中调用. 没有空闲的解码器时按照优先级从低到高释放一个优先级更低的播放器,
+     * 找不到或者都释放失败时仍然允许申请, 由底层播放器决定能否创建解码器.
+     */
+    static void acquire(@NonNull VMoviePlayer player) {
+        List<VMoviePlayer> candidates;
+        synchronized (sHolders) {
+            pruneLocked();
+            if (indexOfLocked(player) >= 0) {
+                return;
+            }
+            recoverLocked();
+            if (sHolders.size() < sMaxInstances) {
+                sHolders.add(new WeakReference<>(player));
+                return;
+            }
+            candidates = victimsLocked(player.getPriority());
+        }
+        // demote 只是保存状态并发送消息, 不在锁里调用.
+        VMoviePlayer victim = null;
+        for (VMoviePlayer candidate : candidates) {
+            if (candidate.demote()) {
+                victim = candidate;
+                break;
+            }
+        }
+        synchronized (sHolders) {
+            if (victim != null) {
+                PlayerLog.d(TAG, "preempt player with priority " + victim.getPriority());
+                int index = indexOfLocked(victim);
+                if (index >= 0) {
+                    sHolders.remove(index);
+                }
+            } else {
+                PlayerLog.w(TAG, "no decoder available, holders is " + sHolders.size());
+            }
+            if (indexOfLocked(player) < 0) {
+                sHolders.add(new WeakReference<>(player));
+            }
+        }
+    }
+
+    /**
+     * @return 优先级低于 priority 的持有者, 按优先级从低到高排列
+     */
+    private static List<VMoviePlayer> victimsLocked(int priority) {
+        List<VMoviePlayer> victims = new ArrayList<>();
+        for (WeakReference<VMoviePlayer> reference : sHolders) {
+            VMoviePlayer holder = reference.get();
+            if (holder == null || holder.getPriority() >= priority) {
+                continue;
+            }
+            int i = 0;
+            while (i < victims.size() && victims.get(i).getPriority() <= holder.getPriority()) {
+                i++;
+            }
+            victims.add(i, holder);
+        }
+        return victims;
+    }
+
+    static void release(@NonNull VMoviePlayer player) {
+        synchronized (sHolders) {
+            int index = indexOfLocked(player);
+            if (index >= 0) {
+                sHolders.remove(index);
+            }
+        }
+    }
+
+    /**
+     * 重试之后仍然创建解码器失败, 说明实际上限比现在同时使用的数量还小.
+     * 可能是其它应用占用了解码器, 不写入缓存.
+     */
+    static void onInstantiateFailed() {
+        synchronized (sHolders) {
+            pruneLocked();
+            int maxInstances = Math.max(1, Math.min(sMaxInstances, sHolders.size() - 1));
+            if (maxInstances < sMaxInstances) {
+                PlayerLog.w(TAG, "lower max instances to " + maxInstances);
+                sMaxInstances = maxInstances;
+            }
+            sLoweredTime = SystemClock.elapsedRealtime();
+        }
+    }
+
+    private static void recoverLocked() {
+        if (sMaxInstances >= sProbedMaxInstances) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        if (now - sLoweredTime >= LIMIT_RECOVER_MS) {
+            sMaxInstances++;
+            sLoweredTime = now;
+            PlayerLog.d(TAG, "recover max instances to " + sMaxInstances);
+        }
+    }
+
+    private static int indexOfLocked(VMoviePlayer player) {
+        for (int i = 0; i < sHolders.size(); i++) {
+            if (sHolders.get(i).get() == player) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void pruneLocked() {
+        Iterator<WeakReference<VMoviePlayer>> iterator = sHolders.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().get() == null) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private static void persistLocked() {
+        if (sPreferences != null) {
+            sPreferences.edit()
+                    .putString(KEY_FINGERPRINT, Build.FINGERPRINT)
+                    .putInt(KEY_MAX_INSTANCES, sProbedMaxInstances)
+                    .apply();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.M)
+    private static int probeMaxInstances() {
+        int maxInstances = 0;
+        try {
+            MediaCodecList codecList = new MediaCodecList(MediaCodecList.REGULAR_CODECS);
+            for (MediaCodecInfo info : codecList.getCodecInfos()) {
+                if (info.isEncoder() || isSoftwareCodec(info.getName())) {
+                    continue;
+                }
+                for (String type : info.getSupportedTypes()) {
+                    if ("video/avc".equalsIgnoreCase(type)) {
+                        maxInstances = Math.max(maxInstances,
+                                info.getCapabilitiesForType(type).getMaxSupportedInstances());
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            PlayerLog.w(TAG, "probe failed " + e.getMessage());
+        }
+        return maxInstances <= 0 ? DEFAULT_MAX_INSTANCES : Math.min(maxInstances, MAX_PROBED_INSTANCES);
+    }
+
+    private static boolean isSoftwareCodec(String name) {
+        return name.startsWith("OMX.google.") || name.startsWith("c2.android.");
+    }
+}
@@ -8,11 +8,13 @@ import android.view.Surface;
 import android.view.SurfaceHolder;
 
 import com.vmovier.lib.player.internal.IInternalPlayer;
+import com.vmovier.lib.view.IPlaybackReportListener;
 import com.vmovier.lib.view.IVideoStateListener;
 import com.vmovier.lib.view.IVideoSizeListener;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.util.List;
 
 
 /**
@@ -32,6 +34,16 @@ public interface IPlayer {
     String SAVE_LOOP = "save_loop";
     String SAVE_MUTED = "save_muted";
     String SAVE_ALLOWMETEREDNETWORK = "save_allowmeterednetwork";
+    String SAVE_HOTSWAP = "save_hotswap";
+    String SAVE_PLAYLIST = "save_playlist";
+    String SAVE_PLAYLIST_INDEX = "save_playlist_index";
+    String SAVE_REMEMBER_POSITION = "save_remember_position";
+    String SAVE_AUDIO_ONLY = "save_audio_only";
+
+    // 不限制视频分辨率
+    int VIDEO_SIZE_UNLIMITED = Integer.MAX_VALUE;
+    // 不休眠
+    long HIBERNATE_DISABLED = 0;
 
     // 播放器类型
     @Retention(RetentionPolicy.SOURCE)
@@ -41,6 +53,34 @@ public interface IPlayer {
     int PLAYERTYPE_ANDROIDMEDIA = IInternalPlayer.PLAYERTYPE_ANDROIDMEDIA;
     int PLAYERTYPE_EXO = IInternalPlayer.PLAYERTYPE_EXO;
 
+    // seek 模式
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({SEEK_MODE_DEFAULT, SEEK_MODE_EXACT, SEEK_MODE_CLOSEST_SYNC, SEEK_MODE_PREVIOUS_SYNC, SEEK_MODE_NEXT_SYNC})
+    @interface SeekMode{}
+
+    /** 底层播放器自己的默认行为: EXO 为精确 seek, 系统播放器为 MediaPlayer#seekTo(int), 大部分机型是之前的关键帧 */
+    int SEEK_MODE_DEFAULT = IInternalPlayer.SEEK_MODE_DEFAULT;
+    /** 精确 seek, 需要从之前的关键帧开始解码到目标位置 */
+    int SEEK_MODE_EXACT = IInternalPlayer.SEEK_MODE_EXACT;
+    /** 跳到离目标位置最近的关键帧, 速度快 适合拖动过程中 */
+    int SEEK_MODE_CLOSEST_SYNC = IInternalPlayer.SEEK_MODE_CLOSEST_SYNC;
+    /** 跳到目标位置之前最近的关键帧 */
+    int SEEK_MODE_PREVIOUS_SYNC = IInternalPlayer.SEEK_MODE_PREVIOUS_SYNC;
+    /** 跳到目标位置之后最近的关键帧 */
+    int SEEK_MODE_NEXT_SYNC = IInternalPlayer.SEEK_MODE_NEXT_SYNC;
+
+    // 播放器优先级
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({PRIORITY_BACKGROUND, PRIORITY_VISIBLE, PRIORITY_FOCUSED})
+    @interface Priority{}
+
+    /** 不可见, 比如预加载的播放器, 分到的缓冲最少 */
+    int PRIORITY_BACKGROUND = IInternalPlayer.PRIORITY_BACKGROUND;
+    /** 可见, 但不是用户正在观看的, 比如列表中的其他视频 */
+    int PRIORITY_VISIBLE = IInternalPlayer.PRIORITY_VISIBLE;
+    /** 用户正在观看的, 分到的缓冲最多 */
+    int PRIORITY_FOCUSED = IInternalPlayer.PRIORITY_FOCUSED;
+
     /** 平行状态 **/
     int STATE_DEFAULT = 0x01 << 1; // 2
     /** 闲置/未初始化状态 **/
@@ -75,11 +115,60 @@ public interface IPlayer {
 
     void seekTo(long position);
 
+    /**
+     * 使用指定的模式 seek, 不改变 {@link #getSeekMode()}.
+     * 关键帧模式目前只有 Android 8.0 以上的 {@link #PLAYERTYPE_ANDROIDMEDIA} 支持, 其它情况都是精确 seek.
+     */
+    void seekTo(long position, @SeekMode int seekMode);
+
+    /**
+     * 设置 {@link #seekTo(long)} 使用的模式, 默认 {@link #SEEK_MODE_DEFAULT}.
+     */
+    void setSeekMode(@SeekMode int seekMode);
+
+    int getSeekMode();
+
     void setMediaDataSource(@Nullable VideoViewDataSource mediaDataSource);
 
     @Nullable
     VideoViewDataSource getMediaDataSource();
 
+    /**
+     * 设置播放列表, 从 startIndex 开始播放, 当前地址播放完成后自动播放下一个.
+     * EXO 播放器会把整个列表拼接在一起, 提前缓冲下一个地址, 切换时没有黑屏;
+     * 其它播放器在当前地址播放完成后重新 prepare 下一个地址.
+     * {@link #setMediaDataSource(VideoViewDataSource)} 相当于只有一个地址的播放列表.
+     * 当前位置的变化通过 {@link com.vmovier.lib.view.IPlaylistStateListener} 回调.
+     */
+    void setPlaylist(@Nullable List<VideoViewDataSource> playlist, int startIndex);
+
+    /**
+     * 添加到播放列表末尾. EXO 播放器会直接加入正在播放的列表, 切换是无缝的.
+     */
+    void addPlaylistItem(@NonNull VideoViewDataSource item);
+
+    void addPlaylistItem(int index, @NonNull VideoViewDataSource item);
+
+    /**
+     * 移除正在播放的地址时, 会接着播放它后面的地址.
+     */
+    void removePlaylistItem(int index);
+
+    void movePlaylistItem(int fromIndex, int toIndex);
+
+    /**
+     * 从头开始播放 index 位置的地址.
+     */
+    void skipToPlaylistItem(int index);
+
+    @NonNull
+    List<VideoViewDataSource> getPlaylist();
+
+    /**
+     * @return 当前地址在播放列表中的位置, 没有设置地址时返回 -1
+     */
+    int getPlaylistIndex();
+
     void setPlayerType(@PlayerType int type);
 
     int getPlayerType();
@@ -96,6 +185,60 @@ public interface IPlayer {
 
     boolean getLoop();
 
+    /**
+     * 是否通过 {@link com.vmovier.lib.player.cache.PlaybackPositionStore} 记录播放进度, 下次播放同一个 mediaId 时从该位置继续.
+     * 需要先调用 PlaybackPositionStore.init, 默认关闭.
+     */
+    void setRememberPosition(boolean remember);
+
+    boolean getRememberPosition();
+
+    /**
+     * 后台播放音频. 开启后, 没有 Surface 时底层播放器只播放音频, 不再下载和解码视频;
+     * 重新设置 Surface 之后自动恢复画面. 默认关闭.
+     * 原生播放器无法关闭视频轨道, 只对 EXO 生效.
+     */
+    void setAudioOnly(boolean audioOnly);
+
+    boolean getAudioOnly();
+
+    /**
+     * 限制选择的视频分辨率, 通常为渲染 View 的像素大小, 小窗口中不再下载和解码高分辨率的视频.
+     * 播放中修改会在之后的分片中生效, 不需要重新 prepare. 只对 EXO 的多码率视频 (HLS / DASH / SS) 生效.
+     * {@link com.vmovier.lib.view.BasicVideoView} 会根据自己的大小自动设置.
+     * @param maxWidth 不限制时传 {@link #VIDEO_SIZE_UNLIMITED}
+     * @param maxHeight 不限制时传 {@link #VIDEO_SIZE_UNLIMITED}
+     */
+    void setMaxVideoSize(int maxWidth, int maxHeight);
+
+    /**
+     * 设置缓冲策略, 默认 {@link BufferPolicy#DEFAULT}. 时长相关的参数在下一次 prepare 时生效.
+     */
+    void setBufferPolicy(@NonNull BufferPolicy policy);
+
+    @NonNull BufferPolicy getBufferPolicy();
+
+    /**
+     * 设置优先级, 所有播放器按照优先级瓜分 {@link com.vmovier.lib.player.internal.BufferBudget} 中的缓冲内存. 默认 {@link #PRIORITY_FOCUSED}.
+     */
+    void setPriority(@Priority int priority);
+
+    int getPriority();
+
+    /**
+     * 休眠: 暂停, 播放完成或者没有 Surface (开启了 {@link #setAudioOnly(boolean)} 时除外) 超过该时长后,
+     * 保存当前状态并释放底层播放器. 之后调用 {@link #play()} 或者重新设置 Surface 时自动恢复到原来的位置.
+     * @param timeoutMs 不休眠时传 {@link #HIBERNATE_DISABLED}, 默认不休眠
+     */
+    void setHibernateTimeout(long timeoutMs);
+
+    long getHibernateTimeout();
+
+    /**
+     * @return 是否因为休眠或者内存不足释放了底层播放器, 等待恢复
+     */
+    boolean isHibernated();
+
     /**
      * 设置播放视频的音量
      * @param volume 范围为0-100
@@ -135,6 +278,20 @@ public interface IPlayer {
 
     boolean isAllowMeteredNetwork();
 
+    /**
+     * 设置是否开启热切换模式.
+     * 开启后, 已经 prepare 过的 EXO 播放器在切换播放地址时不再 release 重建,
+     * 而是直接复用底层的 ExoPlayer 重新 prepare, 保留解码器以及加载线程, 降低切换地址的耗时.
+     */
+    void setHotSwap(boolean hotSwap);
+
+    boolean getHotSwap();
+
+    /**
+     * @return 起播各阶段的耗时统计
+     */
+    @NonNull PlaybackMetrics getPlaybackMetrics();
+
     @NonNull Bundle saveState();
 
     void restoreState(@NonNull Bundle bundle);
@@ -150,4 +307,8 @@ public interface IPlayer {
     void addVideoSizeListener(@NonNull IVideoSizeListener listener);
 
     void removeVideoSizeListener(@NonNull IVideoSizeListener listener);
+
+    void addPlaybackReportListener(@NonNull IPlaybackReportListener listener);
+
+    void removePlaybackReportListener(@NonNull IPlaybackReportListener listener);
 }
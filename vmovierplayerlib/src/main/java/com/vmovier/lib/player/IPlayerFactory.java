@@ -7,4 +7,19 @@ public class IPlayerFactory {
     public static IPlayer newInstance(@NonNull Context context) {
         return new VMoviePlayer(context);
     }
+
+    /**
+     * @param affinityKey 使用 {@link com.vmovier.lib.StateMachineLooperPool#AFFINITY} 策略时,
+     *                    相同 key 的播放器会运行在同一个 Looper 上
+     */
+    public static IPlayer newInstance(@NonNull Context context, int affinityKey) {
+        return new VMoviePlayer(context, affinityKey);
+    }
+
+    /**
+     * @param maxSize 池中最多保留的空闲播放器数量
+     */
+    public static IPlayerPool newPool(@NonNull Context context, int maxSize) {
+        return new VMoviePlayerPool(context, maxSize);
+    }
 }
@@ -0,0 +1,54 @@
+package com.vmovier.lib.player;
+
+import android.support.annotation.NonNull;
+
+/**
+ * 播放器池 行为接口.
+ * 用于 feed 流等需要频繁创建播放器的场景, 复用已经构建好状态机的 {@link IPlayer}.
+ */
+@SuppressWarnings("unused")
+public interface IPlayerPool {
+
+    /**
+     * 从池中取出一个处于 IdleState 的播放器, 池为空时新建一个.
+     * @return 可直接使用的播放器
+     */
+    @NonNull IPlayer acquire();
+
+    /**
+     * 归还播放器. 播放器会被重置回 IdleState, 所有 Listener 以及设置都会被清空.
+     * 如果池已满, 该播放器会被停止并丢弃.
+     * @param player 之前通过 {@link #acquire()} 取出的播放器
+     */
+    void release(@NonNull IPlayer player);
+
+    /**
+     * 预先构建播放器, 直到池中空闲的播放器数量达到 count (不会超过 maxSize).
+     * @param count 希望预热的数量
+     */
+    void prewarm(int count);
+
+    /**
+     * 清空池中所有空闲的播放器.
+     */
+    void clear();
+
+    void setMaxSize(int maxSize);
+
+    int getMaxSize();
+
+    /**
+     * @return 当前池中空闲播放器的数量
+     */
+    int getIdleCount();
+
+    /**
+     * @return acquire 时直接从池中拿到播放器的次数
+     */
+    long getHitCount();
+
+    /**
+     * @return acquire 时池为空, 需要新建播放器的次数
+     */
+    long getMissCount();
+}
@@ -0,0 +1,135 @@
+package com.vmovier.lib.player;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.vmovier.lib.utils.PlayerLog;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * 根据 onTrimMemory 逐级释放播放器占用的内存, 在 {@link com.vmovier.lib.Player#init(Context)} 中注册.
+ * <ol>
+ * <li>{@link ComponentCallbacks2#TRIM_MEMORY_RUNNING_LOW} 及以上: 丢弃暂停中的播放器已经缓冲的数据, 恢复播放时重新缓冲.</li>
+ * <li>{@link ComponentCallbacks2#TRIM_MEMORY_UI_HIDDEN} 及以上: 释放 {@link IPlayer#PRIORITY_BACKGROUND} 播放器的底层播放器 (解码器和缓冲).</li>
+ * <li>{@link ComponentCallbacks2#TRIM_MEMORY_RUNNING_CRITICAL}, {@link ComponentCallbacks2#TRIM_MEMORY_MODERATE} 及以上, onLowMemory:
+ * 释放除了 {@link IPlayer#PRIORITY_FOCUSED} 以外所有播放器的底层播放器.</li>
+ * </ol>
+ * 释放时先保存 saveState 的结果, 之后调用 play 或者重新设置 Surface 时自动恢复到原来的位置.
+ * 播放器的优先级默认是 FOCUSED, 需要业务层通过 {@link IPlayer#setPriority(int)} 标记, 否则只会执行第一步.
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public class MemoryGovernor {
+    private static final String TAG = MemoryGovernor.class.getSimpleName();
+
+    // 丢弃了缓冲的数据
+    public static final int ACTION_TRIM_BUFFERS = 1;
+    // 释放了底层播放器
+    public static final int ACTION_DEMOTE = 2;
+
+    public interface OnTrimListener {
+        /**
+         * 在调用 trim 的线程回调, 由 onTrimMemory 触发时为主线程
+         * @param player 被处理的播放器
+         * @param action {@link #ACTION_TRIM_BUFFERS} 或者 {@link #ACTION_DEMOTE}
+         * @param reclaimedBytes 处理前缓冲数据占用的内存, 不包括解码器, 只有 EXO 可以统计
+         * @param trimLevel onTrimMemory 的 level
+         */
+        void onTrimAction(@NonNull IPlayer player, int action, long reclaimedBytes, int trimLevel);
+    }
+
+    private static final List<WeakReference<VMoviePlayer>> sPlayers = new ArrayList<>();
+    private static ComponentCallbacks2 sCallbacks;
+    private static volatile OnTrimListener sListener;
+
+    public static synchronized void init(@NonNull Context context) {
+        if (sCallbacks != null) {
+            return;
+        }
+        sCallbacks = new ComponentCallbacks2() {
+            @Override
+            public void onTrimMemory(int level) {
+                trim(level);
+            }
+
+            @Override
+            public void onConfigurationChanged(Configuration newConfig) {
+                // doNothing.
+            }
+
+            @Override
+            public void onLowMemory() {
+                trim(TRIM_MEMORY_COMPLETE);
+            }
+        };
+        context.getApplicationContext().registerComponentCallbacks(sCallbacks);
+    }
+
+    public static void setOnTrimListener(@Nullable OnTrimListener listener) {
+        sListener = listener;
+    }
+
+    static void register(@NonNull VMoviePlayer player) {
+        synchronized (sPlayers) {
+            sPlayers.add(new WeakReference<>(player));
+        }
+    }
+
+    /**
+     * 也可以由业务层主动调用, 比如进入后台时.
+     * @param level ComponentCallbacks2 中的 TRIM_MEMORY_* 常量
+     */
+    public static void trim(int level) {
+        if (level < ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            return;
+        }
+        boolean demoteVisible = level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL
+                || level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE;
+        boolean demoteBackground = demoteVisible || level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN;
+        PlayerLog.d(TAG, "trim level is " + level);
+        for (VMoviePlayer player : alivePlayers()) {
+            int priority = player.getPriority();
+            boolean shouldDemote = (priority == IPlayer.PRIORITY_BACKGROUND && demoteBackground)
+                    || (priority != IPlayer.PRIORITY_FOCUSED && demoteVisible);
+            long bytes = player.getAllocatedBytes();
+            if (shouldDemote) {
+                if (player.demote()) {
+                    notifyAction(player, ACTION_DEMOTE, bytes, level);
+                }
+            } else if (player.isCurrentState(IPlayer.STATE_PAUSING)) {
+                player.trimBuffers();
+                notifyAction(player, ACTION_TRIM_BUFFERS, bytes, level);
+            }
+        }
+    }
+
+    private static List<VMoviePlayer> alivePlayers() {
+        List<VMoviePlayer> players = new ArrayList<>();
+        synchronized (sPlayers) {
+            Iterator<WeakReference<VMoviePlayer>> iterator = sPlayers.iterator();
+            while (iterator.hasNext()) {
+                VMoviePlayer player = iterator.next().get();
+                if (player == null) {
+                    iterator.remove();
+                } else {
+                    players.add(player);
+                }
+            }
+        }
+        return players;
+    }
+
+    private static void notifyAction(@NonNull IPlayer player, int action, long bytes, int level) {
+        PlayerLog.d(TAG, "action " + action + " , reclaimed " + bytes + " bytes");
+        OnTrimListener listener = sListener;
+        if (listener != null) {
+            listener.onTrimAction(player, action, bytes, level);
+        }
+    }
+}
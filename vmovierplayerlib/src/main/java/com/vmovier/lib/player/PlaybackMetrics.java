@@ -0,0 +1,209 @@
+package com.vmovier.lib.player;
+
+import android.os.SystemClock;
+import android.support.annotation.IntDef;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.Arrays;
+
+/**
+ * 起播耗时统计. 记录从用户发出 play 指令到首帧渲染之间每个阶段的时间点 (SystemClock.elapsedRealtime, 单位 ms).
+ * 每次完成首帧渲染, 起播耗时会加入进程级别的样本中, 可以通过 {@link #getSessionTimeToFirstFramePercentile(float)} 获取分位数.
+ * 另外记录了被合并掉的 seek 以及 play/pause 指令数量.
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public class PlaybackMetrics {
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({PHASE_COMMAND, PHASE_PREPARE_SOURCE, PHASE_PREPARE_ASYNC, PHASE_PREPARED,
+            PHASE_SURFACE_ATTACHED, PHASE_FIRST_FRAME})
+    @interface Phase{}
+
+    /** 收到 play 指令 */
+    public static final int PHASE_COMMAND = 0;
+    /** 开始创建底层播放器 (prepareIfSourceReady) */
+    public static final int PHASE_PREPARE_SOURCE = 1;
+    /** 调用底层播放器的 prepareAsync */
+    public static final int PHASE_PREPARE_ASYNC = 2;
+    /** 状态机收到 EVENT_PREPARED */
+    public static final int PHASE_PREPARED = 3;
+    /** 设置了可用的 Surface */
+    public static final int PHASE_SURFACE_ATTACHED = 4;
+    /** 首帧渲染完成 */
+    public static final int PHASE_FIRST_FRAME = 5;
+
+    private static final int PHASE_COUNT = 6;
+    public static final long TIME_UNSET = 0;
+
+    // 进程级别的起播耗时样本, 环形数组.
+    private static final int MAX_SAMPLES = 128;
+    private static final long[] sTtffSamples = new long[MAX_SAMPLES];
+    private static int sTtffSampleCount = 0;
+    private static int sTtffSampleIndex = 0;
+
+    private final long[] mTimestamps = new long[PHASE_COUNT];
+    private long mLastTimeToFirstFrame = TIME_UNSET;
+    private int mFirstFrameCount = 0;
+    private int mDroppedSeekCount = 0;
+    private int mDroppedPlayPauseCount = 0;
+
+    PlaybackMetrics() {
+    }
+
+    /**
+     * 记录某一阶段的时间点.
+     * 收到 play 指令时, 如果上一次起播已经完成, 会重新开始统计.
+     */
+    synchronized void mark(@Phase int phase) {
+        long now = SystemClock.elapsedRealtime();
+        switch (phase) {
+            case PHASE_COMMAND:
+                if (mTimestamps[PHASE_COMMAND] != TIME_UNSET && mTimestamps[PHASE_FIRST_FRAME] == TIME_UNSET) {
+                    // 上一次起播还没有完成, 以第一次指令为准.
+                    return;
+                }
+                clearAttempt();
+                mTimestamps[PHASE_COMMAND] = now;
+                break;
+            case PHASE_PREPARE_SOURCE:
+                if (mTimestamps[PHASE_FIRST_FRAME] != TIME_UNSET) {
+                    // 已经起播过, 重新创建播放器 (比如切换地址) 视为新的一次起播.
+                    clearAttempt();
+                }
+                mTimestamps[PHASE_PREPARE_SOURCE] = now;
+                mTimestamps[PHASE_PREPARE_ASYNC] = TIME_UNSET;
+                mTimestamps[PHASE_PREPARED] = TIME_UNSET;
+                break;
+            case PHASE_FIRST_FRAME:
+                if (mTimestamps[PHASE_FIRST_FRAME] != TIME_UNSET || mTimestamps[PHASE_PREPARE_SOURCE] == TIME_UNSET) {
+                    // 更换 Surface 等情况 也会收到首帧的回调, 只统计每次起播的第一次.
+                    return;
+                }
+                mTimestamps[PHASE_FIRST_FRAME] = now;
+                long start = mTimestamps[PHASE_COMMAND] != TIME_UNSET
+                        ? mTimestamps[PHASE_COMMAND] : mTimestamps[PHASE_PREPARE_SOURCE];
+                mLastTimeToFirstFrame = now - start;
+                mFirstFrameCount++;
+                addSessionSample(mLastTimeToFirstFrame);
+                break;
+            default:
+                mTimestamps[phase] = now;
+                break;
+        }
+    }
+
+    synchronized void reset() {
+        clearAttempt();
+        mLastTimeToFirstFrame = TIME_UNSET;
+        mFirstFrameCount = 0;
+        mDroppedSeekCount = 0;
+        mDroppedPlayPauseCount = 0;
+    }
+
+    /**
+     * 一条还没有处理的指令被新的指令替换.
+     */
+    synchronized void onCommandDropped(boolean isSeek) {
+        if (isSeek) {
+            mDroppedSeekCount++;
+        } else {
+            mDroppedPlayPauseCount++;
+        }
+    }
+
+    private void clearAttempt() {
+        Arrays.fill(mTimestamps, TIME_UNSET);
+    }
+
+    /**
+     * @return 当前这次起播 某一阶段的时间点, 还没有到达该阶段时返回 {@link #TIME_UNSET}
+     */
+    public synchronized long getTimestamp(@Phase int phase) {
+        return mTimestamps[phase];
+    }
+
+    /**
+     * @return 当前这次起播 两个阶段之间的耗时, 任意一个阶段还没有到达时返回 -1
+     */
+    public synchronized long getPhaseDuration(@Phase int fromPhase, @Phase int toPhase) {
+        long from = mTimestamps[fromPhase];
+        long to = mTimestamps[toPhase];
+        if (from == TIME_UNSET || to == TIME_UNSET) {
+            return -1;
+        }
+        return to - from;
+    }
+
+    /**
+     * @return 该播放器最近一次的起播耗时, 没有起播过返回 {@link #TIME_UNSET}
+     */
+    public synchronized long getLastTimeToFirstFrame() {
+        return mLastTimeToFirstFrame;
+    }
+
+    /**
+     * @return 该播放器完成首帧渲染的次数
+     */
+    public synchronized int getFirstFrameCount() {
+        return mFirstFrameCount;
+    }
+
+    /**
+     * @return 被后面的 seek 合并掉 没有实际执行的 seek 次数
+     */
+    public synchronized int getDroppedSeekCount() {
+        return mDroppedSeekCount;
+    }
+
+    /**
+     * @return 被后面的 play/pause 合并掉 没有实际执行的 play/pause 次数
+     */
+    public synchronized int getDroppedPlayPauseCount() {
+        return mDroppedPlayPauseCount;
+    }
+
+    private static synchronized void addSessionSample(long timeToFirstFrame) {
+        sTtffSamples[sTtffSampleIndex] = timeToFirstFrame;
+        sTtffSampleIndex = (sTtffSampleIndex + 1) % MAX_SAMPLES;
+        if (sTtffSampleCount < MAX_SAMPLES) {
+            sTtffSampleCount++;
+        }
+    }
+
+    /**
+     * @return 进程内最近 {@value #MAX_SAMPLES} 次起播的样本数量
+     */
+    public static synchronized int getSessionSampleCount() {
+        return sTtffSampleCount;
+    }
+
+    /**
+     * @param percentile 0-100, 比如 50 为中位数, 90 为 P90
+     * @return 进程内最近 {@value #MAX_SAMPLES} 次起播耗时的分位数, 没有样本时返回 -1
+     */
+    public static synchronized long getSessionTimeToFirstFramePercentile(float percentile) {
+        if (sTtffSampleCount == 0) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(sTtffSamples, sTtffSampleCount);
+        Arrays.sort(sorted);
+        float p = Math.max(0, Math.min(100, percentile));
+        int index = (int) Math.ceil(p / 100 * sTtffSampleCount) - 1;
+        return sorted[Math.max(0, index)];
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PlaybackMetrics{" +
+                "command=" + mTimestamps[PHASE_COMMAND] +
+                ", prepareSource=" + mTimestamps[PHASE_PREPARE_SOURCE] +
+                ", prepareAsync=" + mTimestamps[PHASE_PREPARE_ASYNC] +
+                ", prepared=" + mTimestamps[PHASE_PREPARED] +
+                ", surfaceAttached=" + mTimestamps[PHASE_SURFACE_ATTACHED] +
+                ", firstFrame=" + mTimestamps[PHASE_FIRST_FRAME] +
+                ", lastTimeToFirstFrame=" + mLastTimeToFirstFrame +
+                ", droppedSeekCount=" + mDroppedSeekCount +
+                ", droppedPlayPauseCount=" + mDroppedPlayPauseCount +
+                '}';
+    }
+}
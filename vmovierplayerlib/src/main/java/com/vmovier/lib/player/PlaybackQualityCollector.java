@@ -0,0 +1,151 @@
+package com.vmovier.lib.player;
+
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+
+/**
+ * 收集一次播放的卡顿信息, 由 {@link VMoviePlayer} 的状态机驱动.
+ * 一次播放 (session) 从 prepare 某个地址开始, 到 stopPlayback 或者 prepare 另一个地址结束.
+ */
+class PlaybackQualityCollector {
+    // seek 之后这段时间内开始的缓冲, 认为是 seek 引起的.
+    private static final long SEEK_STALL_WINDOW_MS = 1000;
+    private static final long TIME_UNSET = 0;
+
+    private boolean isStarted = false;
+    private VideoViewDataSource mDataSource;
+    private long mPlayRequestTime = TIME_UNSET;
+    private long mJoinStartTime = TIME_UNSET;
+    private long mJoinTime = -1;
+    private long mLastSeekTime = TIME_UNSET;
+
+    private long mStallStartTime = TIME_UNSET;
+    private boolean isStallBySeek = false;
+    private int mSeekStallCount;
+    private long mSeekStallMs;
+    private int mOrganicStallCount;
+    private long mOrganicStallMs;
+
+    private long mPlayStartTime = TIME_UNSET;
+    private long mPlayTimeMs;
+
+    /**
+     * 开始 prepare 某个地址.
+     * @return 如果地址发生了变化, 返回上一次播放的统计
+     */
+    synchronized @Nullable PlaybackQualityReport onPrepare(VideoViewDataSource dataSource, boolean targetPlay) {
+        PlaybackQualityReport report = null;
+        if (isStarted) {
+            if (dataSource == mDataSource) {
+                // 同一个地址重新 prepare (比如切换播放器类型, 重试), 仍然算同一次播放.
+                return null;
+            }
+            report = finish();
+        }
+        isStarted = true;
+        mDataSource = dataSource;
+        if (targetPlay) {
+            mJoinStartTime = mPlayRequestTime != TIME_UNSET ? mPlayRequestTime : SystemClock.elapsedRealtime();
+        }
+        return report;
+    }
+
+    /**
+     * 播放列表无缝切换到了下一个地址, 不需要重新起播, 起播耗时记为 0.
+     * @return 上一个地址的统计
+     */
+    synchronized @Nullable PlaybackQualityReport onItemTransition(VideoViewDataSource dataSource, boolean playing) {
+        PlaybackQualityReport report = finish();
+        isStarted = true;
+        mDataSource = dataSource;
+        mJoinTime = 0;
+        if (playing) {
+            mPlayStartTime = SystemClock.elapsedRealtime();
+        }
+        return report;
+    }
+
+    synchronized void onPlayRequested() {
+        long now = SystemClock.elapsedRealtime();
+        if (mPlayRequestTime == TIME_UNSET) {
+            mPlayRequestTime = now;
+        }
+        if (isStarted && mJoinTime < 0 && mJoinStartTime == TIME_UNSET) {
+            // 预加载完成以后 才发出播放请求.
+            mJoinStartTime = now;
+        }
+    }
+
+    synchronized void onSeek() {
+        mLastSeekTime = SystemClock.elapsedRealtime();
+    }
+
+    synchronized void onPlayingStart() {
+        long now = SystemClock.elapsedRealtime();
+        if (mJoinTime < 0 && mJoinStartTime != TIME_UNSET) {
+            mJoinTime = now - mJoinStartTime;
+        }
+        mPlayStartTime = now;
+    }
+
+    synchronized void onPlayingEnd() {
+        if (mPlayStartTime != TIME_UNSET) {
+            mPlayTimeMs += SystemClock.elapsedRealtime() - mPlayStartTime;
+            mPlayStartTime = TIME_UNSET;
+        }
+    }
+
+    synchronized void onStallStart() {
+        if (mJoinTime < 0) {
+            // 起播之前的缓冲 计入起播耗时.
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        mStallStartTime = now;
+        isStallBySeek = mLastSeekTime != TIME_UNSET && now - mLastSeekTime <= SEEK_STALL_WINDOW_MS;
+    }
+
+    synchronized void onStallEnd() {
+        if (mStallStartTime == TIME_UNSET) {
+            return;
+        }
+        long duration = SystemClock.elapsedRealtime() - mStallStartTime;
+        if (isStallBySeek) {
+            mSeekStallCount++;
+            mSeekStallMs += duration;
+        } else {
+            mOrganicStallCount++;
+            mOrganicStallMs += duration;
+        }
+        mStallStartTime = TIME_UNSET;
+    }
+
+    /**
+     * 结束本次播放.
+     * @return 本次播放的统计, 如果还没有开始过播放返回 null
+     */
+    synchronized @Nullable PlaybackQualityReport finish() {
+        if (!isStarted) {
+            mPlayRequestTime = TIME_UNSET;
+            return null;
+        }
+        onPlayingEnd();
+        onStallEnd();
+        PlaybackQualityReport report = new PlaybackQualityReport(mDataSource, mJoinTime,
+                mSeekStallCount, mSeekStallMs, mOrganicStallCount, mOrganicStallMs, mPlayTimeMs);
+
+        isStarted = false;
+        mDataSource = null;
+        mPlayRequestTime = TIME_UNSET;
+        mJoinStartTime = TIME_UNSET;
+        mJoinTime = -1;
+        mLastSeekTime = TIME_UNSET;
+        isStallBySeek = false;
+        mSeekStallCount = 0;
+        mSeekStallMs = 0;
+        mOrganicStallCount = 0;
+        mOrganicStallMs = 0;
+        mPlayTimeMs = 0;
+        return report;
+    }
+}
@@ -0,0 +1,66 @@
+package com.vmovier.lib.player;
+
+import android.support.annotation.Nullable;
+
+/**
+ * 一次播放的 QoE 统计, 不可修改. 时间单位均为 ms.
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public class PlaybackQualityReport {
+    /** 本次播放的地址 */
+    @Nullable public final VideoViewDataSource dataSource;
+    /** 起播耗时, 从发出播放请求到第一次进入 PLAYING 状态. 没有起播成功为 -1 */
+    public final long joinTimeMs;
+    /** 起播以后 进入缓冲的总次数 */
+    public final int rebufferCount;
+    /** 起播以后 缓冲的总时长 */
+    public final long totalStallMs;
+    /** seek 引起的缓冲次数 */
+    public final int seekStallCount;
+    /** seek 引起的缓冲总时长 */
+    public final long seekStallMs;
+    /** 播放过程中自然发生的缓冲次数 */
+    public final int organicStallCount;
+    /** 播放过程中自然发生的缓冲总时长 */
+    public final long organicStallMs;
+    /** 处于 PLAYING 状态的总时长 */
+    public final long playTimeMs;
+
+    PlaybackQualityReport(@Nullable VideoViewDataSource dataSource, long joinTimeMs,
+                          int seekStallCount, long seekStallMs,
+                          int organicStallCount, long organicStallMs, long playTimeMs) {
+        this.dataSource = dataSource;
+        this.joinTimeMs = joinTimeMs;
+        this.seekStallCount = seekStallCount;
+        this.seekStallMs = seekStallMs;
+        this.organicStallCount = organicStallCount;
+        this.organicStallMs = organicStallMs;
+        this.rebufferCount = seekStallCount + organicStallCount;
+        this.totalStallMs = seekStallMs + organicStallMs;
+        this.playTimeMs = playTimeMs;
+    }
+
+    /**
+     * @return 卡顿时长占 (播放时长 + 卡顿时长) 的比例, 0 - 1
+     */
+    public float getStallRatio() {
+        long total = playTimeMs + totalStallMs;
+        return total <= 0 ? 0 : (float) totalStallMs / total;
+    }
+
+    @Override
+    public String toString() {
+        return "PlaybackQualityReport{" +
+                "dataSource=" + dataSource +
+                ", joinTimeMs=" + joinTimeMs +
+                ", rebufferCount=" + rebufferCount +
+                ", totalStallMs=" + totalStallMs +
+                ", seekStallCount=" + seekStallCount +
+                ", seekStallMs=" + seekStallMs +
+                ", organicStallCount=" + organicStallCount +
+                ", organicStallMs=" + organicStallMs +
+                ", playTimeMs=" + playTimeMs +
+                ", stallRatio=" + getStallRatio() +
+                '}';
+    }
+}
@@ -0,0 +1,150 @@
+package com.vmovier.lib.player;
+
+import android.os.Handler;
+
+import com.vmovier.lib.view.ICoalescedVideoStateListener;
+import com.vmovier.lib.view.IVideoSizeListener;
+import com.vmovier.lib.view.IVideoStateListener;
+
+import java.util.Set;
+
+/**
+ * 把状态机线程产生的 状态变化 以及 VideoSize 变化 分发到主线程.
+ * 两次分发之间产生的事件合并成一个 Runnable 回调, 按照产生的顺序分发. 状态变化不会丢弃,
+ * 只有连续的 VideoSize 变化会合并成最后一个. 使用主线程 Handler 而不是 Choreographer,
+ * 熄屏以及后台播放时也能正常回调. 事件保存在可以扩容的数组中, 容量够用时分发过程中不会创建新的对象.
+ */
+class PlayerEventDispatcher {
+    private static final int INITIAL_CAPACITY = 16;
+    // 事件类型
+    private static final int TYPE_STATE = 0;
+    private static final int TYPE_VIDEO_SIZE = 1;
+
+    private final Handler mMainHandler;
+    private final Set<IVideoStateListener> mVideoStateListeners;
+    private final Set<IVideoSizeListener> mVideoSizeListeners;
+
+    private final Object mLock = new Object();
+    // 每个事件占三个位置 type, oldState, newState. VideoSize 事件的对象保存在 mPendingSizes 相同下标中.
+    private int[] mPendingEvents = new int[INITIAL_CAPACITY * 3];
+    private VideoSize[] mPendingSizes = new VideoSize[INITIAL_CAPACITY];
+    private int mPendingCount = 0;
+    private boolean isScheduled = false;
+
+    // 只在主线程访问, 分发时和 pending 数组交换.
+    private int[] mDispatchingEvents = new int[INITIAL_CAPACITY * 3];
+    private VideoSize[] mDispatchingSizes = new VideoSize[INITIAL_CAPACITY];
+
+    PlayerEventDispatcher(Handler mainHandler, Set<IVideoStateListener> videoStateListeners,
+                          Set<IVideoSizeListener> videoSizeListeners) {
+        this.mMainHandler = mainHandler;
+        this.mVideoStateListeners = videoStateListeners;
+        this.mVideoSizeListeners = videoSizeListeners;
+    }
+
+    void dispatchStateChanged(int oldState, int newState) {
+        synchronized (mLock) {
+            int index = appendLocked();
+            mPendingEvents[index * 3] = TYPE_STATE;
+            mPendingEvents[index * 3 + 1] = oldState;
+            mPendingEvents[index * 3 + 2] = newState;
+            scheduleLocked();
+        }
+    }
+
+    void dispatchVideoSizeChanged(VideoSize videoSize) {
+        synchronized (mLock) {
+            int last = mPendingCount - 1;
+            if (last >= 0 && mPendingEvents[last * 3] == TYPE_VIDEO_SIZE) {
+                // 连续的 VideoSize 变化只保留最后一个.
+                mPendingSizes[last] = videoSize;
+                return;
+            }
+            int index = appendLocked();
+            mPendingEvents[index * 3] = TYPE_VIDEO_SIZE;
+            mPendingSizes[index] = videoSize;
+            scheduleLocked();
+        }
+    }
+
+    /**
+     * 清空还没有分发的事件. 调用方需要同时 remove 掉 mainHandler 上的所有 callback.
+     */
+    void clear() {
+        synchronized (mLock) {
+            for (int i = 0; i < mPendingCount; i++) {
+                mPendingSizes[i] = null;
+            }
+            mPendingCount = 0;
+            isScheduled = false;
+        }
+    }
+
+    private int appendLocked() {
+        if (mPendingCount == mPendingSizes.length) {
+            int capacity = mPendingSizes.length * 2;
+            int[] events = new int[capacity * 3];
+            System.arraycopy(mPendingEvents, 0, events, 0, mPendingCount * 3);
+            mPendingEvents = events;
+            VideoSize[] sizes = new VideoSize[capacity];
+            System.arraycopy(mPendingSizes, 0, sizes, 0, mPendingCount);
+            mPendingSizes = sizes;
+        }
+        return mPendingCount++;
+    }
+
+    private void scheduleLocked() {
+        if (!isScheduled) {
+            isScheduled = true;
+            mMainHandler.post(mDispatchRunnable);
+        }
+    }
+
+    private final Runnable mDispatchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            int count;
+            synchronized (mLock) {
+                if (mDispatchingSizes.length < mPendingSizes.length) {
+                    mDispatchingEvents = new int[mPendingEvents.length];
+                    mDispatchingSizes = new VideoSize[mPendingSizes.length];
+                }
+                int[] events = mDispatchingEvents;
+                mDispatchingEvents = mPendingEvents;
+                mPendingEvents = events;
+                VideoSize[] sizes = mDispatchingSizes;
+                mDispatchingSizes = mPendingSizes;
+                mPendingSizes = sizes;
+                count = mPendingCount;
+                mPendingCount = 0;
+                isScheduled = false;
+            }
+
+            int lastState = -1;
+            for (int i = count - 1; i >= 0; i--) {
+                if (mDispatchingEvents[i * 3] == TYPE_STATE) {
+                    lastState = i;
+                    break;
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                if (mDispatchingEvents[i * 3] == TYPE_VIDEO_SIZE) {
+                    VideoSize videoSize = mDispatchingSizes[i];
+                    mDispatchingSizes[i] = null;
+                    for (IVideoSizeListener listener : mVideoSizeListeners) {
+                        listener.onVideoSizeChanged(videoSize);
+                    }
+                    continue;
+                }
+                int oldState = mDispatchingEvents[i * 3 + 1];
+                int newState = mDispatchingEvents[i * 3 + 2];
+                for (IVideoStateListener listener : mVideoStateListeners) {
+                    // 合并的 Listener 只收到这一批中的最后一次状态变化.
+                    if (!(listener instanceof ICoalescedVideoStateListener) || i == lastState) {
+                        listener.onStateChanged(oldState, newState);
+                    }
+                }
+            }
+        }
+    };
+}
@@ -17,17 +17,27 @@ import android.view.Surface;
 import android.view.SurfaceHolder;
 
 import com.vmovier.lib.Player;
+import com.vmovier.lib.StateMachineLooperPool;
+import com.vmovier.lib.player.cache.PlaybackPositionStore;
 import com.vmovier.lib.player.hsm.State;
 import com.vmovier.lib.player.hsm.StateMachine;
 import com.vmovier.lib.player.internal.IInternalPlayer;
+import com.vmovier.lib.player.internal.IInternalPlaylistPlayer;
 import com.vmovier.lib.player.internal.InternalPlayerFactory;
+import com.vmovier.lib.player.internal.InternalPlayerReaper;
 import com.vmovier.lib.utils.ConnectionUtils;
 import com.vmovier.lib.utils.PlayerLog;
+import com.vmovier.lib.view.IPlaybackReportListener;
+import com.vmovier.lib.view.IPlaylistStateListener;
 import com.vmovier.lib.view.IVideoSizeListener;
 import com.vmovier.lib.view.IVideoStateListener;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
 
@@ -52,7 +62,9 @@ class VMoviePlayer extends StateMachine implements IPlayer {
     private final Context mAppContext;
     private final CopyOnWriteArraySet<IVideoStateListener> mVideoStateListeners;
     private final CopyOnWriteArraySet<IVideoSizeListener> mVideoSizeListeners;
+    private final CopyOnWriteArraySet<IPlaybackReportListener> mPlaybackReportListeners;
     private final Handler mMainHandler;
+    private final PlayerEventDispatcher mEventDispatcher;
     private AudioManager mAudioManager;
     // Max 音量, 不同手机 有可能不同.
     private int mAudioMaxVolume;
@@ -83,12 +95,47 @@ class VMoviePlayer extends StateMachine implements IPlayer {
     private volatile boolean isAllowMeteredNetwork = false;
     private volatile int mPlayerType = PLAYERTYPE_EXO;
     private volatile boolean isLoop = false;
+    private volatile boolean isHotSwap = false;
+    private volatile boolean isRememberPosition = false;
+    private volatile boolean isAudioOnly = false;
+    private volatile int mMaxVideoWidth = VIDEO_SIZE_UNLIMITED;
+    private volatile int mMaxVideoHeight = VIDEO_SIZE_UNLIMITED;
+    private volatile BufferPolicy mBufferPolicy = BufferPolicy.DEFAULT;
+    private volatile int mPriority = PRIORITY_FOCUSED;
+    private volatile long mHibernateTimeoutMs = HIBERNATE_DISABLED;
+    private volatile int mSeekMode = SEEK_MODE_DEFAULT;
     private volatile VideoSize mVideoSize = new VideoSize();
     private volatile Surface mSurface;
 
     // 在调用saveInstanceState的时候, 如果该值不为空 说明还在恢复状态过程中,那么直接返回该值.
     private final AtomicReference<Bundle> mAtomicRestoreBundle = new AtomicReference<>();
+    // 内存不足时释放了底层播放器, 保存的状态. 不为空时, 调用 play 会先恢复该状态.
+    private final AtomicReference<Bundle> mDemotedBundle = new AtomicReference<>();
     private volatile MediaError mMediaError = null;
+    private final PlaybackMetrics mPlaybackMetrics = new PlaybackMetrics();
+    private final PlaybackQualityCollector mQualityCollector = new PlaybackQualityCollector();
+    // 还在队列中 可以被合并的用户指令.
+    private final Object mCommandLock = new Object();
+    private Message mPendingCommand;
+    private int mPendingCommandKind;
+    // 播放列表. 只在持有 mPlaylistLock 时修改, 每次修改都生成新的不可变列表. mMediaDataSource 总是列表中的当前地址.
+    private final Object mPlaylistLock = new Object();
+    private volatile List<VideoViewDataSource> mPlaylist = Collections.emptyList();
+    private volatile int mPlaylistIndex = -1;
+    private int mPlaylistVersion = 0;
+    // 底层播放器中的播放列表对应的版本, -1 表示底层播放器没有使用播放列表. 只在状态机线程中访问.
+    private int mInternalPlaylistVersion = -1;
+    // 底层播放器当前进度对应的地址, 用于记录播放进度. prepared 之后才有值, 只在状态机线程中访问.
+    private VideoViewDataSource mPositionSource;
+    // 休眠计时的版本号, 每次重新计时加一, 过期的计时消息直接忽略. 只在状态机线程中访问.
+    private int mHibernateGeneration = 0;
+    // 每次设置新的 Surface 加一. 休眠计时开始时记录下来, 用于判断计时期间是否重新显示过.
+    private volatile int mSurfaceGeneration = 0;
+    private int mHibernateSurfaceGeneration = 0;
+    // 是否占用了 DecoderBudget 中的解码器. 只在状态机线程中访问.
+    private boolean isHoldingDecoder = false;
+    // 创建解码器失败后是否已经重试过, 出现第一帧后清空.
+    private volatile boolean isDecoderRetried = false;
     // 状态机内部产生的临时变量
     private boolean isInternalBuffering = false;
 
@@ -119,13 +166,46 @@ class VMoviePlayer extends StateMachine implements IPlayer {
     private static final int EVENT_CHANGE_PLAYERTYPE = EVENT_BASE + 17; //改变播放器类型
     private static final int EVENT_UPDATE_ISLOOP = EVENT_BASE + 18; // 改变Loop类型
     private static final int EVENT_CHECK_ALLOW_METEREDNETWORK = EVENT_BASE + 19; // 检查是否允许在移动网络下播放
+    private static final int EVENT_EDIT_PLAYLIST = EVENT_BASE + 20; // 播放列表增删或者移动
+    private static final int EVENT_SKIP_PLAYLIST = EVENT_BASE + 21; // 跳到播放列表的某个位置
+    private static final int EVENT_PLAYLIST_INDEX_CHANGED = EVENT_BASE + 22; // 底层播放器切换到了播放列表的下一个地址
+    private static final int EVENT_CHECKPOINT_POSITION = EVENT_BASE + 23; // 播放中定时记录播放进度
+    private static final int EVENT_UPDATE_AUDIO_ONLY = EVENT_BASE + 24; // 改变是否只播放音频
+    private static final int EVENT_UPDATE_MAX_VIDEO_SIZE = EVENT_BASE + 25; // 改变视频分辨率上限
+    private static final int EVENT_UPDATE_BUFFER_POLICY = EVENT_BASE + 26; // 改变缓冲策略或者优先级
+    private static final int EVENT_TRIM_BUFFERS = EVENT_BASE + 27; // 内存不足, 丢弃暂停中的缓冲
+    private static final int EVENT_UPDATE_HIBERNATE = EVENT_BASE + 28; // 改变休眠时长
+    private static final int EVENT_HIBERNATE = EVENT_BASE + 29; // 休眠计时到了
+    private static final int EVENT_RETRY_DECODER = EVENT_BASE + 30; // 创建解码器失败, 重新 prepare
+
+    private static final long CHECKPOINT_INTERVAL_MS = 5000;
+
+    // 可以合并的用户指令, 放在 Message.arg1 中. CMD_SEEK 的 seek 模式放在 Message.arg2 中.
+    private static final int COMMAND_COALESCABLE = 1;
+    // 底层播放器真正播放完成 (而不是恢复状态时发出) 的 EVENT_COMPLETION, 放在 Message.arg1 中.
+    private static final int COMPLETION_FROM_PLAYER = 1;
 
     private static int instance = 0;
     private int instanceId;
+    private final StateMachineLooperPool.Shard mLooperShard;
+    // 是否计入分片的状态机数量. 放入播放器池或者退出时不再计入.
+    private final AtomicBoolean isShardAttached = new AtomicBoolean(true);
 
 
     public VMoviePlayer(@NonNull Context context) {
-        super("StateMachine", Player.getStateMachineLooper());
+        this(context, instance + 1);
+    }
+
+    /**
+     * @param affinityKey 用于选择状态机所在的 Looper, 见 {@link StateMachineLooperPool#AFFINITY}
+     */
+    VMoviePlayer(@NonNull Context context, int affinityKey) {
+        this(context, Player.getLooperPool().acquire(affinityKey));
+    }
+
+    private VMoviePlayer(@NonNull Context context, @NonNull StateMachineLooperPool.Shard shard) {
+        super("StateMachine", shard.getLooper(), shard.getStats());
+        mLooperShard = shard;
         instanceId = ++instance;
         PlayerLog.d("Lifecycle", "VMoviePlayer is created, My id is" + instanceId);
 
@@ -133,17 +213,44 @@ class VMoviePlayer extends StateMachine implements IPlayer {
         this.mMainHandler = new Handler(Looper.getMainLooper());
         this.mVideoStateListeners = new CopyOnWriteArraySet<>();
         this.mVideoSizeListeners = new CopyOnWriteArraySet<>();
+        this.mPlaybackReportListeners = new CopyOnWriteArraySet<>();
+        this.mEventDispatcher = new PlayerEventDispatcher(mMainHandler, mVideoStateListeners, mVideoSizeListeners);
 
         initAudioManager();
         startStateMachine();
+        MemoryGovernor.register(this);
     }
 
     @Override
     protected void finalize() throws Throwable {
         super.finalize();
+        detachShard();
         PlayerLog.d("Lifecycle", "VMoviePlayer is GCed. My id is " + instanceId);
     }
 
+    @Override
+    protected void onQuitting() {
+        detachShard();
+    }
+
+    /**
+     * 不再计入所在分片的负载, 可以重复调用.
+     */
+    void detachShard() {
+        if (isShardAttached.compareAndSet(true, false)) {
+            Player.getLooperPool().release(mLooperShard);
+        }
+    }
+
+    /**
+     * 从播放器池中取出后 重新计入所在分片的负载.
+     */
+    void attachShard() {
+        if (isShardAttached.compareAndSet(false, true)) {
+            Player.getLooperPool().retain(mLooperShard);
+        }
+    }
+
     @Override
     public void startStateMachine() {
         mDefaultState = new DefaultState();
@@ -173,33 +280,143 @@ class VMoviePlayer extends StateMachine implements IPlayer {
                     addState(mCompletedState, mPausedState);
 
         setInitialState(mIdleState);
+        // 状态结构固定, 状态切换使用预先计算的表.
+        setUseTransitionTable(true);
         super.startStateMachine();
     }
 
     @Override
     public void play() {
-        sendMessage(CMD_PLAY);
+        rehydrate();
+        mPlaybackMetrics.mark(PlaybackMetrics.PHASE_COMMAND);
+        mQualityCollector.onPlayRequested();
+        sendCoalescedCommand(CMD_PLAY, 0, null);
         targetPlay = true;
     }
 
     @Override
     public void pause() {
-        sendMessage(CMD_PAUSE);
+        sendCoalescedCommand(CMD_PAUSE, 0, null);
         targetPlay = false;
     }
 
     @Override
     public void seekTo(long seekPosition) {
-        Message m = Message.obtain();
-        m.what = CMD_SEEK;
-        m.obj = seekPosition;
-        sendMessage(m);
+        seekTo(seekPosition, mSeekMode);
+    }
+
+    @Override
+    public void seekTo(long seekPosition, int seekMode) {
+        mQualityCollector.onSeek();
+        sendCoalescedCommand(CMD_SEEK, seekMode, seekPosition);
+    }
+
+    @Override
+    public void setSeekMode(int seekMode) {
+        pLog("setSeekMode seekMode is " + seekMode);
+        this.mSeekMode = seekMode;
+    }
+
+    @Override
+    public int getSeekMode() {
+        return mSeekMode;
+    }
+
+    /**
+     * 发送用户指令. 如果上一条同类指令 (seek 或者 play/pause) 还在队列中没有被处理, 并且之后没有发送过其它消息,
+     * 直接把它改成最新的指令, 不再发送新的消息. 连续拖动进度条时 状态机只需要处理最后一次 seek.
+     * 中间发送过其它消息 (比如切换地址, stopPlayback) 时由 {@link #onMessageEnqueued(Message)} 清空, 不会跨过它们合并.
+     */
+    private void sendCoalescedCommand(int what, int arg2, @Nullable Object obj) {
+        int kind = what == CMD_SEEK ? CMD_SEEK : CMD_PLAY;
+        synchronized (mCommandLock) {
+            if (mPendingCommand != null && mPendingCommandKind == kind) {
+                setQueuedMessageWhat(mPendingCommand, what);
+                mPendingCommand.arg2 = arg2;
+                mPendingCommand.obj = obj;
+                mPlaybackMetrics.onCommandDropped(kind == CMD_SEEK);
+                return;
+            }
+            Message msg = obtainMessage(what, COMMAND_COALESCABLE, arg2, obj);
+            mPendingCommand = msg;
+            mPendingCommandKind = kind;
+            sendMessage(msg);
+        }
+    }
+
+    @Override
+    protected void onMessageEnqueued(Message msg) {
+        synchronized (mCommandLock) {
+            if (mPendingCommand != null && mPendingCommand != msg) {
+                mPendingCommand = null;
+            }
+        }
+    }
+
+    @Override
+    protected void onMessageDequeued(Message msg) {
+        if (msg.arg1 != COMMAND_COALESCABLE) {
+            return;
+        }
+        // 离开队列以后就不能再修改了, 之后的指令需要发送新的消息.
+        synchronized (mCommandLock) {
+            if (mPendingCommand == msg) {
+                mPendingCommand = null;
+            }
+        }
     }
 
     @Override
     public void stopPlayback() {
         PlayerLog.d(TAG, "stopPlayBack # mAtomicRestoreBundle.set(null)");
         mAtomicRestoreBundle.set(null);
+        mDemotedBundle.set(null);
+        sendMessage(EVENT_STOP_PLAYBACK);
+    }
+
+    /**
+     * 归还到 {@link VMoviePlayerPool} 时调用.
+     * 清空 Listener 以及所有外部设置, 状态机回到 IdleState, 不需要重新 startStateMachine.
+     */
+    void recycle() {
+        pLog("recycle");
+        detachShard();
+        if (mVideoStateListeners.size() > 0) {
+            mVideoStateListeners.clear();
+            stopResister();
+        }
+        mVideoSizeListeners.clear();
+        mPlaybackReportListeners.clear();
+        mMainHandler.removeCallbacksAndMessages(null);
+        mEventDispatcher.clear();
+
+        mAtomicRestoreBundle.set(null);
+        mDemotedBundle.set(null);
+        synchronized (mPlaylistLock) {
+            mPlaylist = Collections.emptyList();
+            mPlaylistIndex = -1;
+            mPlaylistVersion++;
+            mMediaDataSource = null;
+        }
+        mSurface = null;
+        targetPlay = false;
+        isAutoPlay = false;
+        isPreload = false;
+        isMuted = false;
+        isAllowMeteredNetwork = false;
+        isLoop = false;
+        isHotSwap = false;
+        isRememberPosition = false;
+        isAudioOnly = false;
+        mMaxVideoWidth = VIDEO_SIZE_UNLIMITED;
+        mMaxVideoHeight = VIDEO_SIZE_UNLIMITED;
+        mBufferPolicy = BufferPolicy.DEFAULT;
+        mPriority = PRIORITY_FOCUSED;
+        mSeekMode = SEEK_MODE_DEFAULT;
+        mHibernateTimeoutMs = HIBERNATE_DISABLED;
+        mPlayerType = PLAYERTYPE_EXO;
+        mVideoSize = new VideoSize();
+        mPlaybackMetrics.reset();
         sendMessage(EVENT_STOP_PLAYBACK);
     }
 
@@ -217,6 +434,11 @@ class VMoviePlayer extends StateMachine implements IPlayer {
     public void setSurface(Surface surface) {
         if (surface != mSurface) {
             mSurface = surface;
+            if (surface != null) {
+                mSurfaceGeneration++;
+                // 重新显示出来, 恢复休眠前的状态.
+                rehydrate();
+            }
             sendMessage(EVENT_UPDATE_SURFACE);
         } else {
             pLog("setSurface 设置的Surface 和现在的一致.");
@@ -227,7 +449,13 @@ class VMoviePlayer extends StateMachine implements IPlayer {
     public void setMediaDataSource(VideoViewDataSource mediaDataSource) {
         pLog("setMediaDataSource");
         if (mediaDataSource != mMediaDataSource) {
-            this.mMediaDataSource = mediaDataSource;
+            synchronized (mPlaylistLock) {
+                if (mediaDataSource == null) {
+                    replacePlaylistLocked(Collections.<VideoViewDataSource>emptyList(), -1);
+                } else {
+                    replacePlaylistLocked(Collections.singletonList(mediaDataSource), 0);
+                }
+            }
             sendMessage(EVENT_UPDATE_DATASOURCE);
         } else {
             pLog("setMediaDataSource VideoViewDataSource 和现在的一致.");
@@ -239,6 +467,157 @@ class VMoviePlayer extends StateMachine implements IPlayer {
         return mMediaDataSource;
     }
 
+    @Override
+    public void setPlaylist(@Nullable List<VideoViewDataSource> playlist, int startIndex) {
+        pLog("setPlaylist size is " + (playlist == null ? 0 : playlist.size()) + " , startIndex is " + startIndex);
+        synchronized (mPlaylistLock) {
+            if (playlist == null || playlist.isEmpty()) {
+                replacePlaylistLocked(Collections.<VideoViewDataSource>emptyList(), -1);
+            } else {
+                int index = Math.max(0, Math.min(playlist.size() - 1, startIndex));
+                replacePlaylistLocked(Collections.unmodifiableList(new ArrayList<>(playlist)), index);
+            }
+        }
+        sendMessage(EVENT_UPDATE_DATASOURCE);
+    }
+
+    @Override
+    public void addPlaylistItem(@NonNull VideoViewDataSource item) {
+        synchronized (mPlaylistLock) {
+            addPlaylistItem(mPlaylist.size(), item);
+        }
+    }
+
+    @Override
+    public void addPlaylistItem(int index, @NonNull VideoViewDataSource item) {
+        pLog("addPlaylistItem index is " + index);
+        synchronized (mPlaylistLock) {
+            if (index < 0 || index > mPlaylist.size()) {
+                pLog("addPlaylistItem index out of range, size is " + mPlaylist.size());
+                return;
+            }
+            List<VideoViewDataSource> playlist = new ArrayList<>(mPlaylist);
+            playlist.add(index, item);
+            int currentIndex = mPlaylistIndex;
+            if (currentIndex < 0) {
+                // 之前没有地址, 新加入的地址就是当前地址.
+                currentIndex = index;
+            } else if (index <= currentIndex) {
+                currentIndex++;
+            }
+            commitPlaylistEditLocked(playlist, currentIndex,
+                    new PlaylistEdit(PlaylistEdit.OP_ADD, index, -1, item));
+        }
+    }
+
+    @Override
+    public void removePlaylistItem(int index) {
+        pLog("removePlaylistItem index is " + index);
+        synchronized (mPlaylistLock) {
+            if (index < 0 || index >= mPlaylist.size()) {
+                pLog("removePlaylistItem index out of range, size is " + mPlaylist.size());
+                return;
+            }
+            List<VideoViewDataSource> playlist = new ArrayList<>(mPlaylist);
+            playlist.remove(index);
+            int currentIndex = mPlaylistIndex;
+            if (playlist.isEmpty()) {
+                currentIndex = -1;
+            } else if (index < currentIndex) {
+                currentIndex--;
+            } else if (index == currentIndex) {
+                // 移除了当前地址, 接着播放它后面的地址.
+                currentIndex = Math.min(index, playlist.size() - 1);
+            }
+            commitPlaylistEditLocked(playlist, currentIndex,
+                    new PlaylistEdit(PlaylistEdit.OP_REMOVE, index, -1, null));
+        }
+    }
+
+    @Override
+    public void movePlaylistItem(int fromIndex, int toIndex) {
+        pLog("movePlaylistItem fromIndex is " + fromIndex + " , toIndex is " + toIndex);
+        synchronized (mPlaylistLock) {
+            int size = mPlaylist.size();
+            if (fromIndex < 0 || fromIndex >= size || toIndex < 0 || toIndex >= size) {
+                pLog("movePlaylistItem index out of range, size is " + size);
+                return;
+            }
+            if (fromIndex == toIndex) {
+                return;
+            }
+            List<VideoViewDataSource> playlist = new ArrayList<>(mPlaylist);
+            playlist.add(toIndex, playlist.remove(fromIndex));
+            int currentIndex = mPlaylistIndex;
+            if (currentIndex == fromIndex) {
+                currentIndex = toIndex;
+            } else if (fromIndex < currentIndex && toIndex >= currentIndex) {
+                currentIndex--;
+            } else if (fromIndex > currentIndex && toIndex <= currentIndex) {
+                currentIndex++;
+            }
+            commitPlaylistEditLocked(playlist, currentIndex,
+                    new PlaylistEdit(PlaylistEdit.OP_MOVE, fromIndex, toIndex, null));
+        }
+    }
+
+    @Override
+    public void skipToPlaylistItem(int index) {
+        pLog("skipToPlaylistItem index is " + index);
+        synchronized (mPlaylistLock) {
+            if (index < 0 || index >= mPlaylist.size()) {
+                pLog("skipToPlaylistItem index out of range, size is " + mPlaylist.size());
+                return;
+            }
+            setPlaylistIndexLocked(index);
+            sendMessage(EVENT_SKIP_PLAYLIST, index, mPlaylistVersion);
+        }
+    }
+
+    @Override
+    public @NonNull List<VideoViewDataSource> getPlaylist() {
+        return mPlaylist;
+    }
+
+    @Override
+    public int getPlaylistIndex() {
+        return mPlaylistIndex;
+    }
+
+    /**
+     * 整体替换播放列表, 之后需要发送 EVENT_UPDATE_DATASOURCE 重新 prepare.
+     */
+    private void replacePlaylistLocked(@NonNull List<VideoViewDataSource> playlist, int index) {
+        // 设置了新的地址, 不再恢复之前释放的状态.
+        mDemotedBundle.set(null);
+        mPlaylist = playlist;
+        mPlaylistVersion++;
+        setPlaylistIndexLocked(index);
+    }
+
+    /**
+     * 增删或者移动了播放列表中的地址, 在状态机线程中同步给底层播放器.
+     * 在锁中发送消息, 保证消息的顺序和版本号一致.
+     */
+    private void commitPlaylistEditLocked(@NonNull List<VideoViewDataSource> playlist, int index, @NonNull PlaylistEdit edit) {
+        VideoViewDataSource current = index < 0 ? null : playlist.get(index);
+        edit.isCurrentChanged = current != mMediaDataSource;
+        mPlaylist = Collections.unmodifiableList(playlist);
+        edit.version = ++mPlaylistVersion;
+        setPlaylistIndexLocked(index);
+        sendMessage(EVENT_EDIT_PLAYLIST, edit);
+    }
+
+    private void setPlaylistIndexLocked(int index) {
+        int oldIndex = mPlaylistIndex;
+        VideoViewDataSource oldSource = mMediaDataSource;
+        mPlaylistIndex = index;
+        mMediaDataSource = index < 0 ? null : mPlaylist.get(index);
+        if (oldIndex != index || oldSource != mMediaDataSource) {
+            dispatchPlaylistIndexChanged(oldIndex, index, mMediaDataSource);
+        }
+    }
+
     @Override
     public void setPlayerType(int type) {
         pLog("setPlayerType");
@@ -301,6 +680,89 @@ class VMoviePlayer extends StateMachine implements IPlayer {
         return isLoop;
     }
 
+    @Override
+    public void setRememberPosition(boolean remember) {
+        pLog("setRememberPosition remember is " + remember);
+        this.isRememberPosition = remember;
+    }
+
+    @Override
+    public boolean getRememberPosition() {
+        return isRememberPosition;
+    }
+
+    @Override
+    public void setAudioOnly(boolean audioOnly) {
+        if (this.isAudioOnly != audioOnly) {
+            this.isAudioOnly = audioOnly;
+            sendMessage(EVENT_UPDATE_AUDIO_ONLY);
+        } else {
+            pLog("setAudioOnly audioOnly 和现在的一致.");
+        }
+    }
+
+    @Override
+    public boolean getAudioOnly() {
+        return isAudioOnly;
+    }
+
+    @Override
+    public void setMaxVideoSize(int maxWidth, int maxHeight) {
+        if (mMaxVideoWidth != maxWidth || mMaxVideoHeight != maxHeight) {
+            pLog("setMaxVideoSize " + maxWidth + " x " + maxHeight);
+            mMaxVideoWidth = maxWidth;
+            mMaxVideoHeight = maxHeight;
+            sendMessage(EVENT_UPDATE_MAX_VIDEO_SIZE);
+        }
+    }
+
+    @Override
+    public void setBufferPolicy(@NonNull BufferPolicy policy) {
+        if (!mBufferPolicy.equals(policy)) {
+            pLog("setBufferPolicy " + policy);
+            mBufferPolicy = policy;
+            sendMessage(EVENT_UPDATE_BUFFER_POLICY);
+        }
+    }
+
+    @Override
+    public @NonNull BufferPolicy getBufferPolicy() {
+        return mBufferPolicy;
+    }
+
+    @Override
+    public void setPriority(@Priority int priority) {
+        if (mPriority != priority) {
+            pLog("setPriority " + priority);
+            mPriority = priority;
+            sendMessage(EVENT_UPDATE_BUFFER_POLICY);
+        }
+    }
+
+    @Override
+    public int getPriority() {
+        return mPriority;
+    }
+
+    @Override
+    public void setHibernateTimeout(long timeoutMs) {
+        if (mHibernateTimeoutMs != timeoutMs) {
+            pLog("setHibernateTimeout " + timeoutMs);
+            mHibernateTimeoutMs = timeoutMs;
+            sendMessage(EVENT_UPDATE_HIBERNATE);
+        }
+    }
+
+    @Override
+    public long getHibernateTimeout() {
+        return mHibernateTimeoutMs;
+    }
+
+    @Override
+    public boolean isHibernated() {
+        return mDemotedBundle.get() != null;
+    }
+
     @Override
     public void setMuted(boolean muted) {
         pLog("setMuted muted is " + muted);
@@ -333,6 +795,23 @@ class VMoviePlayer extends StateMachine implements IPlayer {
         return isAllowMeteredNetwork;
     }
 
+    @Override
+    public void setHotSwap(boolean hotSwap) {
+        pLog("setHotSwap hotSwap is " + hotSwap);
+        this.isHotSwap = hotSwap;
+    }
+
+    @Override
+    public boolean getHotSwap() {
+        return isHotSwap;
+    }
+
+    @NonNull
+    @Override
+    public PlaybackMetrics getPlaybackMetrics() {
+        return mPlaybackMetrics;
+    }
+
     @Override
     public void setVolume(int volume) {
         if (volume < 0) {
@@ -364,7 +843,11 @@ class VMoviePlayer extends StateMachine implements IPlayer {
         pLog("--------------   VMoviePlayer start saveInstanceState   ------------");
         Bundle b;
         final Bundle tmpRestoreBundle = mAtomicRestoreBundle.get();
-        if (tmpRestoreBundle != null) {
+        final Bundle demotedBundle = mDemotedBundle.get();
+        if (demotedBundle != null) {
+            pLog("底层播放器已经被释放, 直接返回释放前保存的状态.");
+            b = demotedBundle;
+        } else if (tmpRestoreBundle != null) {
             pLog("mTempRestoreBundle != null, 现在正在恢复状态过程,那么直接返回tempRestoreBundle.");
             b = tmpRestoreBundle;
         } else {
@@ -410,12 +893,19 @@ class VMoviePlayer extends StateMachine implements IPlayer {
             }
             // 存储所有状态都有的东西.
             b.putParcelable(SAVE_SOURCE, mMediaDataSource);
+            synchronized (mPlaylistLock) {
+                b.putParcelableArrayList(SAVE_PLAYLIST, new ArrayList<>(mPlaylist));
+                b.putInt(SAVE_PLAYLIST_INDEX, mPlaylistIndex);
+            }
             b.putInt(SAVE_PLAYER_TYPE, mPlayerType);
             b.putBoolean(SAVE_AUTOPLAY, isAutoPlay);
             b.putBoolean(SAVE_PRELOAD, isPreload);
             b.putBoolean(SAVE_LOOP, isLoop);
             b.putBoolean(SAVE_MUTED, isMuted);
             b.putBoolean(SAVE_ALLOWMETEREDNETWORK, isAllowMeteredNetwork);
+            b.putBoolean(SAVE_HOTSWAP, isHotSwap);
+            b.putBoolean(SAVE_REMEMBER_POSITION, isRememberPosition);
+            b.putBoolean(SAVE_AUDIO_ONLY, isAudioOnly);
         }
         pLog("------------  VMoviePlayer saveInstanceState end   ------------");
         pLog("\n");
@@ -429,13 +919,29 @@ class VMoviePlayer extends StateMachine implements IPlayer {
         if (mAtomicRestoreBundle.compareAndSet(null, bundle)) {
             pLog("restoreInstanceState start");
             targetPlay = bundle.getBoolean(SAVE_TARGET_PLAY, false);
-            mMediaDataSource = bundle.getParcelable(SAVE_SOURCE);
+            ArrayList<VideoViewDataSource> playlist = bundle.getParcelableArrayList(SAVE_PLAYLIST);
+            int playlistIndex = bundle.getInt(SAVE_PLAYLIST_INDEX, -1);
+            synchronized (mPlaylistLock) {
+                if (playlist != null && playlistIndex >= 0 && playlistIndex < playlist.size()) {
+                    replacePlaylistLocked(Collections.unmodifiableList(playlist), playlistIndex);
+                } else {
+                    VideoViewDataSource source = bundle.getParcelable(SAVE_SOURCE);
+                    if (source == null) {
+                        replacePlaylistLocked(Collections.<VideoViewDataSource>emptyList(), -1);
+                    } else {
+                        replacePlaylistLocked(Collections.singletonList(source), 0);
+                    }
+                }
+            }
             mPlayerType = bundle.getInt(SAVE_PLAYER_TYPE, PLAYERTYPE_EXO);
             isAutoPlay = bundle.getBoolean(SAVE_AUTOPLAY, isAutoPlay);
             isPreload = bundle.getBoolean(SAVE_PRELOAD, isPreload);
             isLoop = bundle.getBoolean(SAVE_LOOP, isLoop);
             isMuted = bundle.getBoolean(SAVE_MUTED, false);
             isAllowMeteredNetwork = bundle.getBoolean(SAVE_ALLOWMETEREDNETWORK, isAllowMeteredNetwork);
+            isHotSwap = bundle.getBoolean(SAVE_HOTSWAP, isHotSwap);
+            isRememberPosition = bundle.getBoolean(SAVE_REMEMBER_POSITION, isRememberPosition);
+            isAudioOnly = bundle.getBoolean(SAVE_AUDIO_ONLY, isAudioOnly);
 
             Message message = Message.obtain();
             message.what = EVENT_RESTORE_STATE;
@@ -526,45 +1032,62 @@ class VMoviePlayer extends StateMachine implements IPlayer {
         mVideoSizeListeners.remove(listener);
     }
 
-    private void onPlayerVideoSizeChanged() {
-        mMainHandler.post(mNotifyVideoSizeChangeRunnable);
+    @Override
+    public void addPlaybackReportListener(@NonNull IPlaybackReportListener listener) {
+        mPlaybackReportListeners.add(listener);
     }
 
-    private void onStateChanged() {
-        if (mLastState == mState) {
-            PlayerLog.d(TAG, "LastState == mState, doNothing");
+    @Override
+    public void removePlaybackReportListener(@NonNull IPlaybackReportListener listener) {
+        mPlaybackReportListeners.remove(listener);
+    }
+
+    private void dispatchPlaybackReport(@Nullable final PlaybackQualityReport report) {
+        if (report == null) {
             return;
         }
-        mMainHandler.post(new StateChangedRunnable(mLastState, mState));
-
-        mLastState = mState;
+        pLog("dispatchPlaybackReport " + report);
+        if (mPlaybackReportListeners.isEmpty()) {
+            return;
+        }
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (IPlaybackReportListener listener : mPlaybackReportListeners) {
+                    listener.onPlaybackReport(report);
+                }
+            }
+        });
     }
 
-    private Runnable mNotifyVideoSizeChangeRunnable = new Runnable() {
-        @Override
-        public void run() {
-            PlayerLog.d(TAG, "VideoView 收到播放器进入 PREPARED or VideoSizeChanged 状态的信息 " );
-            for (IVideoSizeListener listener : mVideoSizeListeners) {
-                listener.onVideoSizeChanged(mVideoSize);
+    private void dispatchPlaylistIndexChanged(final int oldIndex, final int newIndex,
+                                              @Nullable final VideoViewDataSource dataSource) {
+        pLog("dispatchPlaylistIndexChanged " + oldIndex + " -> " + newIndex);
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (IVideoStateListener listener : mVideoStateListeners) {
+                    if (listener instanceof IPlaylistStateListener) {
+                        ((IPlaylistStateListener) listener).onPlaylistIndexChanged(oldIndex, newIndex, dataSource);
+                    }
+                }
             }
-        }
-    };
+        });
+    }
 
-    private class StateChangedRunnable implements Runnable {
-        private final int lastState;
-        private final int state;
+    private void onPlayerVideoSizeChanged() {
+        mEventDispatcher.dispatchVideoSizeChanged(mVideoSize);
+    }
 
-        public StateChangedRunnable(int lastState, int state) {
-            this.lastState = lastState;
-            this.state = state;
+    private void onStateChanged() {
+        if (mLastState == mState) {
+            PlayerLog.d(TAG, "LastState == mState, doNothing");
+            return;
         }
+        mEventDispatcher.dispatchStateChanged(mLastState, mState);
 
-        @Override
-        public void run() {
-            for (IVideoStateListener listener : mVideoStateListeners) {
-                listener.onStateChanged(lastState, state);
-            }
-        }
+        mLastState = mState;
+        updateHibernateTimer();
     }
 
     private void startRegister() {
@@ -580,6 +1103,7 @@ class VMoviePlayer extends StateMachine implements IPlayer {
     private void stopResister() {
         // handler
         mMainHandler.removeCallbacksAndMessages(null);
+        mEventDispatcher.clear();
         // 音量物理按键
         try {
             mAppContext.unregisterReceiver(mVolumeReceiver);
@@ -649,17 +1173,89 @@ class VMoviePlayer extends StateMachine implements IPlayer {
         public boolean processMessage(Message msg) {
             switch (msg.what) {
                 case EVENT_ERROR:
+                    if (retryInstantiateDecoder((MediaError) msg.obj)) {
+                        return HANDLED;
+                    }
                     // 在任何状态下 收到错误的信息 都转入 错误状态.
                     transitionTo(mErrorState);
                     return HANDLED;
                 case EVENT_STOP_PLAYBACK:
                     transitionTo(mIdleState);
                     release();
+                    dispatchPlaybackReport(mQualityCollector.finish());
                     return HANDLED;
                 case EVENT_RESTORE_STATE:
                     // 只有在UnWorkingState下才接受该命令
                     mAtomicRestoreBundle.set(null);
                     return HANDLED;
+                case EVENT_EDIT_PLAYLIST:
+                    applyPlaylistEdit((PlaylistEdit) msg.obj);
+                    return HANDLED;
+                case EVENT_SKIP_PLAYLIST:
+                    if (isCurrentState(STATE_COMPLETED)) {
+                        targetPlay = true;
+                    }
+                    if (mInternalMediaPlayer instanceof IInternalPlaylistPlayer
+                            && msg.arg2 == mInternalPlaylistVersion && isCurrentState(STATE_MASK_PREPARED)) {
+                        // 底层播放器中就是当前的列表, 直接跳过去, 不需要重新 prepare.
+                        checkpointPosition();
+                        mPositionSource = mMediaDataSource;
+                        ((IInternalPlaylistPlayer) mInternalMediaPlayer).skipToPlaylistItem(msg.arg1);
+                        dispatchPlaybackReport(mQualityCollector.onItemTransition(mMediaDataSource,
+                                isCurrentState(STATE_MASK_PLAYED)));
+                        if (isCurrentState(STATE_COMPLETED)) {
+                            transitionTo(mPlayingState);
+                            mInternalMediaPlayer.start();
+                        }
+                    } else {
+                        sendMessage(EVENT_UPDATE_DATASOURCE);
+                    }
+                    return HANDLED;
+                case EVENT_PLAYLIST_INDEX_CHANGED:
+                    onInternalPlaylistIndexChanged();
+                    return HANDLED;
+                case EVENT_UPDATE_ISLOOP:
+                    // 由底层播放器自己循环, 播放到结尾时不会再回调 onCompletion.
+                    if (mInternalMediaPlayer != null) {
+                        mInternalMediaPlayer.setLooping(isLoop);
+                    }
+                    return HANDLED;
+                case EVENT_CHECKPOINT_POSITION:
+                    // 离开 PlayingState 之后收到的, 忽略.
+                    return HANDLED;
+                case EVENT_UPDATE_AUDIO_ONLY:
+                    if (mInternalMediaPlayer != null) {
+                        updateInternalAudioOnly();
+                    }
+                    updateHibernateTimer();
+                    return HANDLED;
+                case EVENT_UPDATE_MAX_VIDEO_SIZE:
+                    if (mInternalMediaPlayer != null) {
+                        mInternalMediaPlayer.setMaxVideoSize(mMaxVideoWidth, mMaxVideoHeight);
+                    }
+                    return HANDLED;
+                case EVENT_TRIM_BUFFERS:
+                    // 只在 PausingState 下处理.
+                    return HANDLED;
+                case EVENT_UPDATE_HIBERNATE:
+                    updateHibernateTimer();
+                    return HANDLED;
+                case EVENT_HIBERNATE:
+                    if (msg.arg1 == mHibernateGeneration && isHibernateIdle() && demote()) {
+                        pLog("hibernate");
+                        if (mSurface != null && mSurfaceGeneration != mHibernateSurfaceGeneration) {
+                            // 计时期间重新设置了 Surface, 并且在 demote 之前就调用过 rehydrate, 这里补上.
+                            // 带着 Surface 暂停的播放器保持休眠, 等待 play 恢复.
+                            rehydrate();
+                        }
+                    }
+                    return HANDLED;
+                case EVENT_UPDATE_BUFFER_POLICY:
+                    if (mInternalMediaPlayer != null) {
+                        mInternalMediaPlayer.setBufferPolicy(mBufferPolicy);
+                        mInternalMediaPlayer.setPriority(mPriority);
+                    }
+                    return HANDLED;
             }
             return NOT_HANDLED;
         }
@@ -768,6 +1364,11 @@ class VMoviePlayer extends StateMachine implements IPlayer {
             Message msg = getCurrentMessage();
             if (msg != null) {
                 mMediaError = (MediaError) msg.obj;
+                if (mMediaError.getErrorCode() == MediaError.EXO_ERROR_INSTANTIATING_DECODER) {
+                    // 重试之后仍然失败, 实际的解码器数量比预计的少.
+                    isDecoderRetried = false;
+                    DecoderBudget.onInstantiateFailed();
+                }
                 if (mMediaError.getRestoreBundle() == null) {
                     mMediaError.setRestoreBundle(saveState());
                 }
@@ -837,14 +1438,19 @@ class VMoviePlayer extends StateMachine implements IPlayer {
                     return HANDLED;
                 case EVENT_UPDATE_SURFACE:
                     if (mInternalMediaPlayer != null) {
-                        mInternalMediaPlayer.setSurface(mSurface);
+                        updateInternalSurface();
                     }
                     return HANDLED;
                 case EVENT_PREPARED: // 收到Prepared的之后 判断应该去什么状态。
+                    mPlaybackMetrics.mark(PlaybackMetrics.PHASE_PREPARED);
                     // 去一个根节点的时候 转化Event信息.
                     transitionTo(mPreparedState);
+                    mPositionSource = mMediaDataSource;
                     final Bundle tmpRestoreBundle = mAtomicRestoreBundle.getAndSet(null);
-                    if (tmpRestoreBundle != null) {
+                    if (tmpRestoreBundle == null) {
+                        // 恢复状态时使用 Bundle 中的进度. 之后 defer 的用户 seek 会覆盖这里的位置.
+                        restoreRememberedPosition();
+                    } else {
                         int restoreState = tmpRestoreBundle.getInt(SAVE_STATE);
                         // 如果是恢复出来的状态,检查下是否需要恢复到播放完成状态. 如果不是则 根据targetPlay恢复到最新的状态
                         // 注意: 这里 targetPlay 有可能与Bundle中 存储的不一样, 因为在恢复过程中 有可能外部发了play 或者pause的指令/
@@ -860,6 +1466,7 @@ class VMoviePlayer extends StateMachine implements IPlayer {
                         sendMessage(EVENT_PAUSE);
                     }
                     return HANDLED;
+                case EVENT_RETRY_DECODER:
                 case EVENT_RESTORESTATE_PREPARE:
                     if (mMediaDataSource == null) {
                         transitionTo(mIdleState);
@@ -878,7 +1485,8 @@ class VMoviePlayer extends StateMachine implements IPlayer {
                                 Bundle restoreBundle = (Bundle) msg.obj;
                                 final long seekPosition = restoreBundle.getLong(SAVE_POSITION, 0);
                                 if (seekPosition != 0) {
-                                    sendMessage(CMD_SEEK, seekPosition);
+                                    // 恢复的 seek 同样使用当前设置的模式, 默认不是精确 seek.
+                                    sendMessage(CMD_SEEK, 0, mSeekMode, seekPosition);
                                 }
                             }
                         }
@@ -947,22 +1555,32 @@ class VMoviePlayer extends StateMachine implements IPlayer {
                 case CMD_SEEK:
                     if (mInternalMediaPlayer != null) {
                         long seekPosition = (long) msg.obj;
-                        mInternalMediaPlayer.seekTo(seekPosition);
+                        mInternalMediaPlayer.seekTo(seekPosition, msg.arg2);
                     }
                     return HANDLED;
                 case EVENT_COMPLETION:
+                    if (msg.arg1 == COMPLETION_FROM_PLAYER && isRememberPosition && mPositionSource != null) {
+                        // 已经看完, 下次从头播放.
+                        PlaybackPositionStore.remove(mPositionSource.mediaId);
+                    }
                     if (isLoop) {
+                        // 底层播放器会自己循环, 这里只处理恢复状态等情况下收到的完成事件.
                         transitionTo(mPlayingState);
                         if (mInternalMediaPlayer != null) {
                             mInternalMediaPlayer.start();
                         }
+                    } else if (msg.arg1 == COMPLETION_FROM_PLAYER && moveToNextPlaylistItem()) {
+                        // 底层播放器不支持播放列表, 重新 prepare 下一个地址.
+                        targetPlay = true;
+                        transitionTo(mPreparingState);
+                        sendMessage(EVENT_TRY_TO_PREPARE);
                     } else {
                         transitionTo(mCompletedState);
                     }
                     return HANDLED;
                 case EVENT_UPDATE_SURFACE:
                     if (mInternalMediaPlayer != null) {
-                        mInternalMediaPlayer.setSurface(mSurface);
+                        updateInternalSurface();
                     }
                     return HANDLED;
                 case EVENT_BUFFER_START:
@@ -1038,7 +1656,31 @@ class VMoviePlayer extends StateMachine implements IPlayer {
         public void enter() {
             super.enter();
             mState = STATE_PLAYING;
+            mQualityCollector.onPlayingStart();
             onStateChanged();
+            if (isRememberPosition) {
+                sendMessageDelayed(EVENT_CHECKPOINT_POSITION, CHECKPOINT_INTERVAL_MS);
+            }
+        }
+
+        @Override
+        public void exit() {
+            super.exit();
+            mQualityCollector.onPlayingEnd();
+            removeMessages(EVENT_CHECKPOINT_POSITION);
+        }
+
+        @Override
+        public boolean processMessage(Message msg) {
+            switch (msg.what) {
+                case EVENT_CHECKPOINT_POSITION:
+                    checkpointPosition();
+                    if (isRememberPosition) {
+                        sendMessageDelayed(EVENT_CHECKPOINT_POSITION, CHECKPOINT_INTERVAL_MS);
+                    }
+                    return HANDLED;
+            }
+            return NOT_HANDLED;
         }
     }
 
@@ -1047,8 +1689,15 @@ class VMoviePlayer extends StateMachine implements IPlayer {
         public void enter() {
             super.enter();
             mState = STATE_BUFFERING;
+            mQualityCollector.onStallStart();
             onStateChanged();
         }
+
+        @Override
+        public void exit() {
+            super.exit();
+            mQualityCollector.onStallEnd();
+        }
     }
 
     private class PausedState extends PlayerState {
@@ -1066,7 +1715,7 @@ class VMoviePlayer extends StateMachine implements IPlayer {
                     targetPlay = true;
                     if (mInternalMediaPlayer != null) {
                         long seekPosition = (long) msg.obj;
-                        mInternalMediaPlayer.seekTo(seekPosition);
+                        mInternalMediaPlayer.seekTo(seekPosition, msg.arg2);
                         mInternalMediaPlayer.start();
                     }
                 case CMD_PAUSE:
@@ -1083,6 +1732,19 @@ class VMoviePlayer extends StateMachine implements IPlayer {
             super.enter();
             mState = STATE_PAUSING;
             onStateChanged();
+            checkpointPosition();
+        }
+
+        @Override
+        public boolean processMessage(Message msg) {
+            switch (msg.what) {
+                case EVENT_TRIM_BUFFERS:
+                    if (mInternalMediaPlayer != null) {
+                        mInternalMediaPlayer.trimBuffers();
+                    }
+                    return HANDLED;
+            }
+            return NOT_HANDLED;
         }
     }
 
@@ -1104,6 +1766,9 @@ class VMoviePlayer extends StateMachine implements IPlayer {
                     }
                     return HANDLED;
                 case EVENT_UPDATE_ISLOOP:
+                    if (mInternalMediaPlayer != null) {
+                        mInternalMediaPlayer.setLooping(isLoop);
+                    }
                     if (isLoop) {
                         transitionTo(mPlayingState);
                         if (mInternalMediaPlayer != null) {
@@ -1128,9 +1793,22 @@ class VMoviePlayer extends StateMachine implements IPlayer {
      */
     private void prepareIfSourceReady() {
         pLog("prepareIfSourceReady");
+        mPlaybackMetrics.mark(PlaybackMetrics.PHASE_PREPARE_SOURCE);
+        dispatchPlaybackReport(mQualityCollector.onPrepare(mMediaDataSource, targetPlay));
+        // 切换地址之前记录上一个地址的进度.
+        checkpointPosition();
+        mPositionSource = null;
+
+        if (canHotSwap()) {
+            hotSwapDataSource();
+            return;
+        }
 
         release();
 
+        // 只播放音频时不会创建视频解码器. 先申请, 需要抢占时被抢占的播放器可以尽早开始释放.
+        updateDecoderLease();
+
         AudioManager am = (AudioManager) mAppContext.getSystemService(Context.AUDIO_SERVICE);
         am.requestAudioFocus(null, AudioManager.STREAM_MUSIC, AudioManager.AUDIOFOCUS_GAIN);
 
@@ -1143,14 +1821,15 @@ class VMoviePlayer extends StateMachine implements IPlayer {
             mInternalMediaPlayer.setOnErrorListener(mErrorListener);
             mInternalMediaPlayer.setOnInfoListener(mInfoListener);
             mInternalMediaPlayer.setOnSeekCompleteListener(mSeekCompleteListener);
+            mInternalMediaPlayer.setLooping(isLoop);
+            mInternalMediaPlayer.setMaxVideoSize(mMaxVideoWidth, mMaxVideoHeight);
+            mInternalMediaPlayer.setBufferPolicy(mBufferPolicy);
+            mInternalMediaPlayer.setPriority(mPriority);
 
-            if (Build.VERSION.SDK_INT > Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
-                mInternalMediaPlayer.setDataSource(mAppContext, mMediaDataSource.uri, mMediaDataSource.headers);
-            } else {
-                mInternalMediaPlayer.setDataSource(mMediaDataSource.uri.toString());
-            }
-            mInternalMediaPlayer.setSurface(mSurface); // maybe Null.
+            setInternalDataSource();
+            updateInternalSurface(); // maybe Null.
             mInternalMediaPlayer.setAudioStreamType(AudioManager.STREAM_MUSIC);
+            mPlaybackMetrics.mark(PlaybackMetrics.PHASE_PREPARE_ASYNC);
             mInternalMediaPlayer.prepareAsync();
         } catch (IOException ex) {
             pLog("Unable to open content: " + mMediaDataSource.uri);
@@ -1165,26 +1844,338 @@ class VMoviePlayer extends StateMachine implements IPlayer {
         }
     }
 
+    /**
+     * 把当前地址设置给底层播放器. 播放列表中有多个地址并且底层播放器支持时, 把整个列表交给底层播放器.
+     */
+    private void setInternalDataSource() throws IOException {
+        mInternalPlaylistVersion = -1;
+        if (mInternalMediaPlayer instanceof IInternalPlaylistPlayer) {
+            synchronized (mPlaylistLock) {
+                // 只有一个地址时也使用播放列表, 之后追加的地址可以直接加入底层播放器, 连续播放.
+                if (mPlaylistIndex >= 0) {
+                    ((IInternalPlaylistPlayer) mInternalMediaPlayer).setPlaylist(mPlaylist, mPlaylistIndex);
+                    mInternalPlaylistVersion = mPlaylistVersion;
+                    return;
+                }
+            }
+        }
+        if (Build.VERSION.SDK_INT > Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+            mInternalMediaPlayer.setDataSource(mAppContext, mMediaDataSource.uri, mMediaDataSource.headers);
+        } else {
+            mInternalMediaPlayer.setDataSource(mMediaDataSource.uri.toString());
+        }
+    }
+
+    /**
+     * 在状态机线程中把播放列表的修改同步给底层播放器.
+     * 只有底层播放器中的列表正好是上一个版本时才能直接修改, 否则说明之后会重新 prepare, 新的列表中已经包含了这次修改.
+     */
+    private void applyPlaylistEdit(@NonNull PlaylistEdit edit) {
+        if (mInternalMediaPlayer instanceof IInternalPlaylistPlayer && mInternalPlaylistVersion >= 0
+                && edit.version == mInternalPlaylistVersion + 1) {
+            IInternalPlaylistPlayer playlistPlayer = (IInternalPlaylistPlayer) mInternalMediaPlayer;
+            switch (edit.op) {
+                case PlaylistEdit.OP_ADD:
+                    playlistPlayer.addPlaylistItem(edit.index, edit.item);
+                    break;
+                case PlaylistEdit.OP_REMOVE:
+                    playlistPlayer.removePlaylistItem(edit.index);
+                    break;
+                case PlaylistEdit.OP_MOVE:
+                    playlistPlayer.movePlaylistItem(edit.index, edit.toIndex);
+                    break;
+            }
+            mInternalPlaylistVersion = edit.version;
+            if (edit.isCurrentChanged) {
+                if (mMediaDataSource == null) {
+                    sendMessage(EVENT_UPDATE_DATASOURCE);
+                } else {
+                    // 移除了正在播放的地址, 底层播放器会接着播放下一个.
+                    dispatchPlaybackReport(mQualityCollector.onItemTransition(mMediaDataSource,
+                            isCurrentState(STATE_MASK_PLAYED)));
+                }
+            }
+        } else if (mInternalPlaylistVersion < 0 && edit.isCurrentChanged) {
+            // 底层播放器只有当前地址, 当前地址变化时重新 prepare.
+            sendMessage(EVENT_UPDATE_DATASOURCE);
+        }
+    }
+
+    /**
+     * 底层播放器自动切换到了下一个地址.
+     */
+    private void onInternalPlaylistIndexChanged() {
+        if (!(mInternalMediaPlayer instanceof IInternalPlaylistPlayer)) {
+            return;
+        }
+        VideoViewDataSource item = ((IInternalPlaylistPlayer) mInternalMediaPlayer).getCurrentPlaylistItem();
+        if (item == null) {
+            return;
+        }
+        boolean isTransition;
+        synchronized (mPlaylistLock) {
+            int index = -1;
+            for (int i = 0; i < mPlaylist.size(); i++) {
+                if (mPlaylist.get(i) == item) {
+                    index = i;
+                    break;
+                }
+            }
+            if (index < 0) {
+                return;
+            }
+            // 跳转或者移除当前地址时, 已经提前更新了当前地址.
+            isTransition = item != mMediaDataSource;
+            setPlaylistIndexLocked(index);
+        }
+        if (isTransition) {
+            if (isRememberPosition && mPositionSource != null) {
+                // 自动切换到下一个地址, 上一个已经看完.
+                PlaybackPositionStore.remove(mPositionSource.mediaId);
+            }
+            dispatchPlaybackReport(mQualityCollector.onItemTransition(item, isCurrentState(STATE_MASK_PLAYED)));
+        }
+        mPositionSource = item;
+    }
+
+    /**
+     * 底层播放器不支持播放列表时, 当前地址播放完成以后移动到下一个地址.
+     * @return 是否还有下一个地址
+     */
+    private boolean moveToNextPlaylistItem() {
+        if (mInternalPlaylistVersion >= 0) {
+            // 底层播放器已经播放完了整个列表.
+            return false;
+        }
+        synchronized (mPlaylistLock) {
+            if (mPlaylistIndex < 0 || mPlaylistIndex + 1 >= mPlaylist.size()) {
+                return false;
+            }
+            setPlaylistIndexLocked(mPlaylistIndex + 1);
+            return true;
+        }
+    }
+
+    /**
+     * 把当前的 Surface 设置给底层播放器.
+     */
+    private void updateInternalSurface() {
+        mInternalMediaPlayer.setSurface(mSurface);
+        if (mSurface != null) {
+            mPlaybackMetrics.mark(PlaybackMetrics.PHASE_SURFACE_ATTACHED);
+        }
+        updateInternalAudioOnly();
+        updateHibernateTimer();
+    }
+
+    /**
+     * 开启了后台播放并且没有 Surface 时, 底层播放器只播放音频.
+     */
+    private void updateInternalAudioOnly() {
+        // 恢复视频之前先申请解码器, 关闭视频之后再归还.
+        boolean audioOnly = isAudioOnly && mSurface == null;
+        if (!audioOnly) {
+            updateDecoderLease();
+        }
+        mInternalMediaPlayer.setAudioOnly(audioOnly);
+        if (audioOnly) {
+            updateDecoderLease();
+        }
+    }
+
+    /**
+     * 按照是否只播放音频 申请或者归还 DecoderBudget 中的解码器. 只在状态机线程中调用.
+     */
+    private void updateDecoderLease() {
+        boolean needDecoder = !(isAudioOnly && mSurface == null);
+        if (needDecoder && !isHoldingDecoder) {
+            DecoderBudget.acquire(this);
+            isHoldingDecoder = true;
+        } else if (!needDecoder && isHoldingDecoder) {
+            isHoldingDecoder = false;
+            DecoderBudget.release(this);
+        }
+    }
+
+    /**
+     * 热切换只针对 EXO 播放器, 并且底层播放器类型没有发生变化.
+     */
+    private boolean canHotSwap() {
+        return isHotSwap && mInternalMediaPlayer != null
+                && mPlayerType == PLAYERTYPE_EXO
+                && mInternalMediaPlayer.getPlayerType() == PLAYERTYPE_EXO;
+    }
+
+    /**
+     * 复用当前的底层播放器, 只替换播放地址重新 prepare.
+     */
+    private void hotSwapDataSource() {
+        pLog("hotSwapDataSource");
+        isInternalBuffering = false;
+        // 上一个地址的尺寸, 新地址的尺寸由底层播放器重新回调.
+        mVideoSize = new VideoSize();
+        try {
+            mInternalMediaPlayer.reset();
+            setInternalDataSource();
+            updateInternalSurface(); // maybe Null.
+            mPlaybackMetrics.mark(PlaybackMetrics.PHASE_PREPARE_ASYNC);
+            mInternalMediaPlayer.prepareAsync();
+        } catch (IOException | IllegalArgumentException ex) {
+            pLog("Unable to open content: " + mMediaDataSource.uri);
+            MediaError e = new MediaError(MediaError.ERROR_PREPARE);
+            sendMessage(EVENT_ERROR, e);
+        }
+    }
+
     /**
      * release the media player in any state
+     * 先在当前线程断开回调和 Surface, 真正的 release 交给 {@link InternalPlayerReaper} 异步完成
+     * (MediaPlayer 在后台线程, ExoPlayer 在状态机线程排队), 状态机可以立即处理下一个地址.
      */
     private void release() {
         pLog("release");
         if (mInternalMediaPlayer != null) {
+            checkpointPosition();
+            mPositionSource = null;
             isInternalBuffering = false;
-            mInternalMediaPlayer.release();
-            mInternalMediaPlayer.setOnPreparedListener(null);
-            mInternalMediaPlayer.setOnVideoSizeChangedListener(null);
-            mInternalMediaPlayer.setOnCompletionListener(null);
-            mInternalMediaPlayer.setOnErrorListener(null);
-            mInternalMediaPlayer.setOnInfoListener(null);
-            mInternalMediaPlayer.setOnSeekCompleteListener(null);
+            IInternalPlayer internalPlayer = mInternalMediaPlayer;
             mInternalMediaPlayer = null;
+            internalPlayer.setOnPreparedListener(null);
+            internalPlayer.setOnVideoSizeChangedListener(null);
+            internalPlayer.setOnCompletionListener(null);
+            internalPlayer.setOnErrorListener(null);
+            internalPlayer.setOnInfoListener(null);
+            internalPlayer.setOnSeekCompleteListener(null);
+            try {
+                // Surface 马上可能会交给新的播放器, 不能等后台释放.
+                internalPlayer.setSurface(null);
+            } catch (IllegalStateException e) {
+                pLog("release setSurface failed " + e.getMessage());
+            }
+            mInternalPlaylistVersion = -1;
+            InternalPlayerReaper.release(internalPlayer);
             AudioManager am = (AudioManager) mAppContext.getSystemService(Context.AUDIO_SERVICE);
             if (am != null) {
                 am.abandonAudioFocus(null);
             }
         }
+        if (isHoldingDecoder) {
+            isHoldingDecoder = false;
+            DecoderBudget.release(this);
+        }
+        // 重新 prepare 或者停止之后, 之前安排的解码器重试没有意义了.
+        removeMessages(EVENT_RETRY_DECODER);
+    }
+
+    /**
+     * 由 {@link MemoryGovernor} 调用, 暂停状态下丢弃已经缓冲的数据.
+     */
+    void trimBuffers() {
+        sendMessage(EVENT_TRIM_BUFFERS);
+    }
+
+    /**
+     * @return 底层播放器缓冲数据占用的内存
+     */
+    long getAllocatedBytes() {
+        IInternalPlayer internalPlayer = mInternalMediaPlayer;
+        return internalPlayer == null ? 0 : internalPlayer.getAllocatedBytes();
+    }
+
+    /**
+     * 由 {@link MemoryGovernor} 或者休眠计时调用, 保存当前状态后释放底层播放器 (解码器以及缓冲), 回到 IdleState.
+     * 之后调用 play 或者重新设置 Surface 时自动恢复到保存的状态.
+     * @return 是否释放了
+     */
+    boolean demote() {
+        if (!isCurrentState(STATE_PREPARING | STATE_MASK_PREPARED) || mDemotedBundle.get() != null) {
+            return false;
+        }
+        Bundle bundle = saveState();
+        if (!mDemotedBundle.compareAndSet(null, bundle)) {
+            return false;
+        }
+        pLog("demote");
+        mAtomicRestoreBundle.set(null);
+        sendMessage(EVENT_STOP_PLAYBACK);
+        return true;
+    }
+
+    /**
+     * 创建解码器失败时, 抢占的播放器可能还没有真正释放解码器 (释放是异步的), 等待一段时间后重新 prepare 一次.
+     * 在状态机线程中调用.
+     * @return 是否安排了重试
+     */
+    private boolean retryInstantiateDecoder(MediaError error) {
+        if (error == null || error.getErrorCode() != MediaError.EXO_ERROR_INSTANTIATING_DECODER
+                || isDecoderRetried || mMediaDataSource == null) {
+            return false;
+        }
+        pLog("retry instantiating decoder");
+        isDecoderRetried = true;
+        Bundle bundle = saveState();
+        release();
+        transitionTo(mPreparingState);
+        sendMessageDelayed(EVENT_RETRY_DECODER, bundle, DecoderBudget.RETRY_DELAY_MS);
+        return true;
+    }
+
+    /**
+     * 是否可以休眠: 已经 prepared, 并且暂停中, 播放完成, 或者没有 Surface 并且不是后台播放音频.
+     */
+    private boolean isHibernateIdle() {
+        if (mInternalMediaPlayer == null || !isCurrentState(STATE_MASK_PREPARED)) {
+            return false;
+        }
+        return isCurrentState(STATE_MASK_PAUSED) || (mSurface == null && !isAudioOnly);
+    }
+
+    /**
+     * 状态或者 Surface 变化后重新开始休眠计时. 只在状态机线程中调用.
+     */
+    private void updateHibernateTimer() {
+        removeMessages(EVENT_HIBERNATE);
+        mHibernateGeneration++;
+        mHibernateSurfaceGeneration = mSurfaceGeneration;
+        if (mHibernateTimeoutMs > 0 && isHibernateIdle()) {
+            sendMessageDelayed(EVENT_HIBERNATE, mHibernateGeneration, mHibernateTimeoutMs);
+        }
+    }
+
+    /**
+     * 恢复 demote 之前的状态, 没有被 demote 时什么都不做.
+     */
+    private void rehydrate() {
+        Bundle bundle = mDemotedBundle.getAndSet(null);
+        if (bundle != null) {
+            pLog("rehydrate");
+            restoreState(bundle);
+        }
+    }
+
+    /**
+     * 记录当前地址的播放进度. 只修改内存, 由 {@link PlaybackPositionStore} 在后台合并写入文件.
+     */
+    private void checkpointPosition() {
+        if (!isRememberPosition || mPositionSource == null || mInternalMediaPlayer == null) {
+            return;
+        }
+        PlaybackPositionStore.putPosition(mPositionSource.mediaId,
+                mInternalMediaPlayer.getCurrentPosition(), mInternalMediaPlayer.getDuration());
+    }
+
+    /**
+     * prepared 之后从上次记录的位置继续播放.
+     */
+    private void restoreRememberedPosition() {
+        if (!isRememberPosition || mPositionSource == null || mInternalMediaPlayer == null) {
+            return;
+        }
+        long position = PlaybackPositionStore.getPosition(mPositionSource.mediaId);
+        if (position > 0) {
+            pLog("restoreRememberedPosition " + position);
+            mInternalMediaPlayer.seekTo(position, mSeekMode);
+        }
     }
 
     /**
@@ -1204,7 +2195,7 @@ class VMoviePlayer extends StateMachine implements IPlayer {
     private IInternalPlayer.OnCompletionListener mCompletionListener = new IInternalPlayer.OnCompletionListener() {
         public void onCompletion(IInternalPlayer mp) {
             pLog("onCompletion");
-            sendMessage(EVENT_COMPLETION);
+            sendMessage(EVENT_COMPLETION, COMPLETION_FROM_PLAYER);
         }
     };
 
@@ -1236,6 +2227,8 @@ class VMoviePlayer extends StateMachine implements IPlayer {
                     break;
                 case IInternalPlayer.MEDIA_INFO_VIDEO_RENDERING_START:
                     pLog("onInfo# MEDIA_INFO_VIDEO_RENDERING_START:");
+                    mPlaybackMetrics.mark(PlaybackMetrics.PHASE_FIRST_FRAME);
+                    isDecoderRetried = false;
                     break;
                 //缓冲视频开始.
                 case IInternalPlayer.MEDIA_INFO_BUFFERING_START:
@@ -1271,6 +2264,10 @@ class VMoviePlayer extends StateMachine implements IPlayer {
                 case IInternalPlayer.MEDIA_INFO_AUDIO_RENDERING_START:
                     pLog("onInfo# MEDIA_INFO_AUDIO_RENDERING_START:");
                     break;
+                case IInternalPlayer.MEDIA_INFO_PLAYLIST_INDEX_CHANGED:
+                    pLog("onInfo# MEDIA_INFO_PLAYLIST_INDEX_CHANGED: " + extra);
+                    sendMessage(EVENT_PLAYLIST_INDEX_CHANGED);
+                    break;
             }
             return true;
         }
@@ -1299,4 +2296,27 @@ class VMoviePlayer extends StateMachine implements IPlayer {
 
     private class PlayerState extends State {
     }
+
+    /**
+     * 播放列表的一次修改.
+     */
+    private static class PlaylistEdit {
+        static final int OP_ADD = 1;
+        static final int OP_REMOVE = 2;
+        static final int OP_MOVE = 3;
+
+        final int op;
+        final int index;
+        final int toIndex;
+        final @Nullable VideoViewDataSource item;
+        int version;
+        boolean isCurrentChanged;
+
+        PlaylistEdit(int op, int index, int toIndex, @Nullable VideoViewDataSource item) {
+            this.op = op;
+            this.index = index;
+            this.toIndex = toIndex;
+            this.item = item;
+        }
+    }
 }
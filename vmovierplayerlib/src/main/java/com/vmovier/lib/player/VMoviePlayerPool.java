@@ -0,0 +1,116 @@
+package com.vmovier.lib.player;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+
+import com.vmovier.lib.utils.PlayerLog;
+
+import java.util.ArrayDeque;
+
+
+/**
+ * {@link IPlayerPool} 的默认实现, 池中保存的都是已经 startStateMachine 的 {@link VMoviePlayer}.
+ */
+class VMoviePlayerPool implements IPlayerPool {
+    private static final String TAG = VMoviePlayerPool.class.getSimpleName();
+
+    private final Context mAppContext;
+    private final ArrayDeque<VMoviePlayer> mIdlePlayers = new ArrayDeque<>();
+    private int mMaxSize;
+    private long mHitCount;
+    private long mMissCount;
+
+    VMoviePlayerPool(@NonNull Context context, int maxSize) {
+        this.mAppContext = context.getApplicationContext();
+        this.mMaxSize = maxSize < 0 ? 0 : maxSize;
+    }
+
+    @Override
+    public @NonNull IPlayer acquire() {
+        synchronized (this) {
+            VMoviePlayer player = mIdlePlayers.pollFirst();
+            if (player != null) {
+                mHitCount++;
+                player.attachShard();
+                return player;
+            }
+            mMissCount++;
+        }
+        PlayerLog.d(TAG, "acquire miss, create new VMoviePlayer");
+        return new VMoviePlayer(mAppContext);
+    }
+
+    @Override
+    public void release(@NonNull IPlayer player) {
+        if (!(player instanceof VMoviePlayer)) {
+            PlayerLog.w(TAG, "release player is not created by IPlayerFactory, stop it only");
+            player.stopPlayback();
+            return;
+        }
+        VMoviePlayer vMoviePlayer = (VMoviePlayer) player;
+        vMoviePlayer.recycle();
+        synchronized (this) {
+            if (mIdlePlayers.contains(vMoviePlayer)) {
+                PlayerLog.w(TAG, "release player twice");
+                return;
+            }
+            if (mIdlePlayers.size() < mMaxSize) {
+                mIdlePlayers.offerLast(vMoviePlayer);
+            } else {
+                PlayerLog.d(TAG, "pool is full, drop the player");
+            }
+        }
+    }
+
+    @Override
+    public void prewarm(int count) {
+        int target;
+        synchronized (this) {
+            target = Math.min(count, mMaxSize) - mIdlePlayers.size();
+        }
+        for (int i = 0; i < target; i++) {
+            VMoviePlayer player = new VMoviePlayer(mAppContext);
+            // 池中空闲的播放器不计入分片的负载.
+            player.detachShard();
+            synchronized (this) {
+                if (mIdlePlayers.size() >= mMaxSize) {
+                    return;
+                }
+                mIdlePlayers.offerLast(player);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void clear() {
+        mIdlePlayers.clear();
+    }
+
+    @Override
+    public synchronized void setMaxSize(int maxSize) {
+        mMaxSize = maxSize < 0 ? 0 : maxSize;
+        while (mIdlePlayers.size() > mMaxSize) {
+            mIdlePlayers.pollLast();
+        }
+    }
+
+    @Override
+    public synchronized int getMaxSize() {
+        return mMaxSize;
+    }
+
+    @Override
+    public synchronized int getIdleCount() {
+        return mIdlePlayers.size();
+    }
+
+    @Override
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    @Override
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+}
@@ -9,19 +9,28 @@ import java.util.HashMap;
 public class VideoViewDataSource implements Parcelable {
     public final Uri uri;
     public final HashMap<String, String> headers;
+    /**
+     * 稳定的视频 id, 地址可能会变化 (签名, CDN), id 不变. 用于记录播放进度, 见 {@link com.vmovier.lib.player.cache.PlaybackPositionStore}.
+     */
+    public final String mediaId;
 
     public VideoViewDataSource(Uri uri) {
         this(uri, null);
     }
 
     public VideoViewDataSource(Uri uri, HashMap<String, String> headers) {
+        this(uri, headers, null);
+    }
+
+    public VideoViewDataSource(Uri uri, HashMap<String, String> headers, String mediaId) {
         this.uri = uri;
         this.headers = headers;
+        this.mediaId = mediaId;
     }
 
     @Override
     public String toString() {
-        return "Uri is " + (uri == null ? "Empty" : uri.toString());
+        return "Uri is " + (uri == null ? "Empty" : uri.toString()) + (mediaId == null ? "" : " , mediaId is " + mediaId);
     }
 
 
@@ -34,11 +43,13 @@ public class VideoViewDataSource implements Parcelable {
     public void writeToParcel(Parcel dest, int flags) {
         dest.writeParcelable(this.uri, flags);
         dest.writeSerializable(this.headers);
+        dest.writeString(this.mediaId);
     }
 
     protected VideoViewDataSource(Parcel in) {
         this.uri = in.readParcelable(Uri.class.getClassLoader());
         this.headers = (HashMap<String, String>) in.readSerializable();
+        this.mediaId = in.readString();
     }
 
     public static final Parcelable.Creator<VideoViewDataSource> CREATOR = new Parcelable.Creator<VideoViewDataSource>() {
@@ -0,0 +1,11 @@
+package com.vmovier.lib.player.cache;
+
+import android.net.Uri;
+import android.support.annotation.NonNull;
+
+/**
+ * 生成磁盘缓存的 key. 同一个视频的不同地址 (比如带有签名参数的地址) 应该生成相同的 key.
+ */
+public interface CacheKeyFactory {
+    @NonNull String buildCacheKey(@NonNull Uri uri);
+}
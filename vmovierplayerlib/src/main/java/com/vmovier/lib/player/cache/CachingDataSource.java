@@ -0,0 +1,121 @@
+package com.vmovier.lib.player.cache;
+
+import android.net.Uri;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.FileDataSource;
+import com.google.android.exoplayer2.upstream.cache.Cache;
+import com.google.android.exoplayer2.upstream.cache.CacheDataSink;
+import com.google.android.exoplayer2.upstream.cache.CacheDataSource;
+import com.google.android.exoplayer2.util.Util;
+
+import java.io.IOException;
+
+/**
+ * 在 upstream 外包一层 {@link CacheDataSource}.
+ * 1. HLS/DASH/SS 的索引文件直接走 upstream, 不进入缓存, 防止直播流读到过期的索引.
+ * 2. 用 {@link CacheKeyFactory} 重写 DataSpec 的 key.
+ * 3. 统计 命中/未命中 次数以及从缓存读取的字节数.
+ */
+class CachingDataSource implements DataSource {
+    private final Cache mCache;
+    private final DataSource mUpstream;
+    private final CacheKeyFactory mCacheKeyFactory;
+    private final int mFlags;
+
+    private DataSource mCurrentDataSource;
+    private long mCacheBytesRead;
+    private long mUpstreamBytesRead;
+
+    CachingDataSource(Cache cache, DataSource upstream, CacheKeyFactory cacheKeyFactory, int flags) {
+        this.mCache = cache;
+        this.mUpstream = upstream;
+        this.mCacheKeyFactory = cacheKeyFactory;
+        this.mFlags = flags;
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws IOException {
+        mCacheBytesRead = 0;
+        mUpstreamBytesRead = 0;
+        if (isManifest(dataSpec.uri)) {
+            mCurrentDataSource = mUpstream;
+            return mUpstream.open(dataSpec);
+        }
+        String key = dataSpec.key != null ? dataSpec.key : mCacheKeyFactory.buildCacheKey(dataSpec.uri);
+        DataSpec cacheDataSpec = new DataSpec(dataSpec.uri, dataSpec.postBody, dataSpec.absoluteStreamPosition,
+                dataSpec.position, dataSpec.length, key, dataSpec.flags);
+        mCurrentDataSource = new CacheDataSource(mCache, new CountingDataSource(), new FileDataSource(),
+                new CacheDataSink(mCache, CacheDataSource.DEFAULT_MAX_CACHE_FILE_SIZE), mFlags,
+                mCacheEventListener);
+        return mCurrentDataSource.open(cacheDataSpec);
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) throws IOException {
+        return mCurrentDataSource.read(buffer, offset, readLength);
+    }
+
+    @Override
+    public Uri getUri() {
+        return mCurrentDataSource == null ? null : mCurrentDataSource.getUri();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mCurrentDataSource == null) {
+            return;
+        }
+        try {
+            mCurrentDataSource.close();
+        } finally {
+            if (mCurrentDataSource != mUpstream) {
+                MediaCache.onDataSourceClosed(mCacheBytesRead, mUpstreamBytesRead);
+            }
+            mCurrentDataSource = null;
+        }
+    }
+
+    private final CacheDataSource.EventListener mCacheEventListener = new CacheDataSource.EventListener() {
+        @Override
+        public void onCachedBytesRead(long cacheSizeBytes, long cachedBytesRead) {
+            mCacheBytesRead += cachedBytesRead;
+        }
+    };
+
+    private static boolean isManifest(Uri uri) {
+        String lastPathSegment = uri.getLastPathSegment();
+        return lastPathSegment != null && Util.inferContentType(lastPathSegment) != C.TYPE_OTHER;
+    }
+
+    /**
+     * 统计从网络读取的字节数.
+     */
+    private class CountingDataSource implements DataSource {
+        @Override
+        public long open(DataSpec dataSpec) throws IOException {
+            return mUpstream.open(dataSpec);
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int readLength) throws IOException {
+            int read = mUpstream.read(buffer, offset, readLength);
+            if (read > 0) {
+                mUpstreamBytesRead += read;
+            }
+            return read;
+        }
+
+        @Override
+        public Uri getUri() {
+            return mUpstream.getUri();
+        }
+
+        @Override
+        public void close() throws IOException {
+            mUpstream.close();
+        }
+    }
+}
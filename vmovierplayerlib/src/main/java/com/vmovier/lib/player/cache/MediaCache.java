@@ -0,0 +1,169 @@
+package com.vmovier.lib.player.cache;
+
+import android.content.Context;
+import android.net.Uri;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.cache.Cache;
+import com.google.android.exoplayer2.upstream.cache.CacheDataSource;
+import com.google.android.exoplayer2.upstream.cache.LeastRecentlyUsedCacheEvictor;
+import com.google.android.exoplayer2.upstream.cache.SimpleCache;
+import com.vmovier.lib.utils.PlayerLog;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 播放器的磁盘缓存, 默认关闭. 需要在 {@link com.vmovier.lib.Player#init(Context)} 之后主动调用 {@link #init(Context, long)} 开启.
+ * 开启后 EXO 播放器 (渐进式, HLS, DASH, SS 的分片) 以及 {@link PreloadManager} 都会通过该缓存读取数据.
+ * 索引文件 (m3u8, mpd) 不会被缓存.
+ */
+@SuppressWarnings("unused")
+public class MediaCache {
+    private static final String TAG = MediaCache.class.getSimpleName();
+    private static final String CACHE_DIR = "vmovier_media";
+
+    /**
+     * 默认的 key, 直接使用完整的地址.
+     */
+    public static final CacheKeyFactory DEFAULT_CACHE_KEY_FACTORY = new CacheKeyFactory() {
+        @NonNull
+        @Override
+        public String buildCacheKey(@NonNull Uri uri) {
+            return uri.toString();
+        }
+    };
+
+    /**
+     * 去掉地址中的 query 参数, 适用于带有签名参数(过期时间, token等)的 CDN 地址.
+     */
+    public static final CacheKeyFactory IGNORE_QUERY_CACHE_KEY_FACTORY = new CacheKeyFactory() {
+        @NonNull
+        @Override
+        public String buildCacheKey(@NonNull Uri uri) {
+            return uri.buildUpon().clearQuery().fragment(null).build().toString();
+        }
+    };
+
+    private static Cache sCache;
+    private static volatile CacheKeyFactory sCacheKeyFactory = DEFAULT_CACHE_KEY_FACTORY;
+
+    private static final AtomicLong sHitCount = new AtomicLong();
+    private static final AtomicLong sMissCount = new AtomicLong();
+    private static final AtomicLong sBytesSaved = new AtomicLong();
+    private static final AtomicLong sBytesDownloaded = new AtomicLong();
+
+    /**
+     * @param context ApplicationContext
+     * @param maxBytes 缓存的最大字节数, 超出以后按 LRU 淘汰
+     */
+    public static void init(@NonNull Context context, long maxBytes) {
+        init(context, maxBytes, null);
+    }
+
+    /**
+     * @param context ApplicationContext
+     * @param maxBytes 缓存的最大字节数, 超出以后按 LRU 淘汰
+     * @param cacheKeyFactory 为空时使用 {@link #DEFAULT_CACHE_KEY_FACTORY}
+     */
+    public static synchronized void init(@NonNull Context context, long maxBytes,
+                                         @Nullable CacheKeyFactory cacheKeyFactory) {
+        if (cacheKeyFactory != null) {
+            sCacheKeyFactory = cacheKeyFactory;
+        }
+        if (sCache != null) {
+            PlayerLog.d(TAG, "MediaCache already init.");
+            return;
+        }
+        File dir = new File(context.getApplicationContext().getCacheDir(), CACHE_DIR);
+        sCache = new SimpleCache(dir, new LeastRecentlyUsedCacheEvictor(maxBytes));
+    }
+
+    public static synchronized boolean isEnabled() {
+        return sCache != null;
+    }
+
+    public static synchronized @Nullable Cache getCache() {
+        return sCache;
+    }
+
+    public static void setCacheKeyFactory(@NonNull CacheKeyFactory cacheKeyFactory) {
+        sCacheKeyFactory = cacheKeyFactory;
+    }
+
+    public static @NonNull CacheKeyFactory getCacheKeyFactory() {
+        return sCacheKeyFactory;
+    }
+
+    /**
+     * @return 当前缓存占用的字节数
+     */
+    public static long getCacheSpace() {
+        Cache cache = getCache();
+        return cache == null ? 0 : cache.getCacheSpace();
+    }
+
+    /**
+     * @return 数据全部从缓存读取的次数
+     */
+    public static long getHitCount() {
+        return sHitCount.get();
+    }
+
+    /**
+     * @return 需要从网络读取数据的次数
+     */
+    public static long getMissCount() {
+        return sMissCount.get();
+    }
+
+    /**
+     * @return 从缓存读取, 节省下来的网络字节数
+     */
+    public static long getBytesSaved() {
+        return sBytesSaved.get();
+    }
+
+    /**
+     * @return 经过缓存层 从网络读取的字节数
+     */
+    public static long getBytesDownloaded() {
+        return sBytesDownloaded.get();
+    }
+
+    public static void resetStats() {
+        sHitCount.set(0);
+        sMissCount.set(0);
+        sBytesSaved.set(0);
+        sBytesDownloaded.set(0);
+    }
+
+    /**
+     * 在 upstream 外面包一层磁盘缓存, 如果缓存没有开启 直接返回 upstream.
+     */
+    public static @NonNull DataSource.Factory buildDataSourceFactory(@NonNull final DataSource.Factory upstream) {
+        final Cache cache = getCache();
+        if (cache == null) {
+            return upstream;
+        }
+        return new DataSource.Factory() {
+            @Override
+            public DataSource createDataSource() {
+                return new CachingDataSource(cache, upstream.createDataSource(), sCacheKeyFactory,
+                        CacheDataSource.FLAG_IGNORE_CACHE_ON_ERROR);
+            }
+        };
+    }
+
+    static void onDataSourceClosed(long cacheBytesRead, long upstreamBytesRead) {
+        if (upstreamBytesRead > 0) {
+            sMissCount.incrementAndGet();
+        } else if (cacheBytesRead > 0) {
+            sHitCount.incrementAndGet();
+        }
+        sBytesSaved.addAndGet(cacheBytesRead);
+        sBytesDownloaded.addAndGet(upstreamBytesRead);
+    }
+}
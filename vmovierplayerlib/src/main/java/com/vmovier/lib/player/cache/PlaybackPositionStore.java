@@ -0,0 +1,261 @@
+package com.vmovier.lib.player.cache;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.text.TextUtils;
+import android.util.AtomicFile;
+
+import com.vmovier.lib.utils.PlayerLog;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 持久化的播放进度, 以 {@link com.vmovier.lib.player.VideoViewDataSource#mediaId} 为 key, 进程被杀或者重启之后仍然可以续播.
+ * 默认关闭, 需要在 {@link com.vmovier.lib.Player#init(Context)} 之后主动调用 {@link #init(Context, int)} 开启.
+ *
+ * 内存中是一个 LRU 的 LinkedHashMap, 查询是 O(1) 的. 写入只修改内存并标记为脏,
+ * 在后台线程中延时 {@value #WRITE_DELAY_MS} ms 合并写入文件, 不会阻塞状态机线程或者主线程.
+ * 文件通过 {@link AtomicFile} 整体替换, 写到一半被杀掉也不会损坏.
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public class PlaybackPositionStore {
+    private static final String TAG = PlaybackPositionStore.class.getSimpleName();
+    private static final String FILE_NAME = "vmovier_positions";
+    private static final int FILE_VERSION = 1;
+
+    public static final int DEFAULT_CAPACITY = 500;
+    public static final long UNKNOWN_POSITION = -1;
+    // 距离结尾不足该时长 认为已经看完, 下次从头播放.
+    private static final long END_THRESHOLD_MS = 5000;
+    private static final long WRITE_DELAY_MS = 2000;
+
+    private static final int MSG_LOAD = 1;
+    private static final int MSG_WRITE = 2;
+
+    private static final Object sLock = new Object();
+    private static LinkedHashMap<String, Long> sPositions;
+    private static AtomicFile sFile;
+    private static Handler sHandler;
+    private static boolean isDirty = false;
+
+    /**
+     * @param context ApplicationContext
+     * @param capacity 最多记录的视频数量, 超出以后按 LRU 淘汰
+     */
+    public static void init(@NonNull Context context, final int capacity) {
+        synchronized (sLock) {
+            if (sHandler != null) {
+                PlayerLog.d(TAG, "PlaybackPositionStore already init.");
+                return;
+            }
+            final int maxSize = Math.max(1, capacity);
+            sPositions = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                    return size() > maxSize;
+                }
+            };
+            sFile = new AtomicFile(new File(context.getApplicationContext().getFilesDir(), FILE_NAME));
+            HandlerThread thread = new HandlerThread("playback_position");
+            thread.start();
+            sHandler = new Handler(thread.getLooper()) {
+                @Override
+                public void handleMessage(Message msg) {
+                    switch (msg.what) {
+                        case MSG_LOAD:
+                            load();
+                            break;
+                        case MSG_WRITE:
+                            write();
+                            break;
+                    }
+                }
+            };
+            sHandler.sendEmptyMessage(MSG_LOAD);
+        }
+    }
+
+    public static boolean isEnabled() {
+        synchronized (sLock) {
+            return sHandler != null;
+        }
+    }
+
+    /**
+     * @return 记录的播放进度, 没有记录或者没有开启时返回 {@link #UNKNOWN_POSITION}
+     */
+    public static long getPosition(@Nullable String mediaId) {
+        if (TextUtils.isEmpty(mediaId)) {
+            return UNKNOWN_POSITION;
+        }
+        synchronized (sLock) {
+            if (sPositions == null) {
+                return UNKNOWN_POSITION;
+            }
+            Long position = sPositions.get(mediaId);
+            return position == null ? UNKNOWN_POSITION : position;
+        }
+    }
+
+    /**
+     * 记录播放进度. 接近结尾时 (剩余不足 {@value #END_THRESHOLD_MS} ms) 删除记录, 下次从头播放.
+     * 位置为 0 时忽略, 刚 prepare 完还没有 seek 到记录的位置时不会把记录冲掉.
+     * @param durationMs 视频时长, 未知时传 0
+     */
+    public static void putPosition(@Nullable String mediaId, long positionMs, long durationMs) {
+        if (TextUtils.isEmpty(mediaId) || positionMs <= 0) {
+            return;
+        }
+        if (durationMs > 0 && positionMs + END_THRESHOLD_MS >= durationMs) {
+            remove(mediaId);
+            return;
+        }
+        synchronized (sLock) {
+            if (sPositions == null) {
+                return;
+            }
+            Long old = sPositions.put(mediaId, positionMs);
+            if (old == null || old != positionMs) {
+                scheduleWriteLocked();
+            }
+        }
+    }
+
+    public static void remove(@Nullable String mediaId) {
+        if (TextUtils.isEmpty(mediaId)) {
+            return;
+        }
+        synchronized (sLock) {
+            if (sPositions != null && sPositions.remove(mediaId) != null) {
+                scheduleWriteLocked();
+            }
+        }
+    }
+
+    public static void clear() {
+        synchronized (sLock) {
+            if (sPositions != null && !sPositions.isEmpty()) {
+                sPositions.clear();
+                scheduleWriteLocked();
+            }
+        }
+    }
+
+    /**
+     * 立即在后台线程写入文件, 比如 Activity onStop 的时候.
+     */
+    public static void flush() {
+        synchronized (sLock) {
+            if (sHandler != null && isDirty) {
+                sHandler.removeMessages(MSG_WRITE);
+                sHandler.sendEmptyMessage(MSG_WRITE);
+            }
+        }
+    }
+
+    private static void scheduleWriteLocked() {
+        isDirty = true;
+        if (!sHandler.hasMessages(MSG_WRITE)) {
+            sHandler.sendEmptyMessageDelayed(MSG_WRITE, WRITE_DELAY_MS);
+        }
+    }
+
+    private static void load() {
+        List<String> ids = new ArrayList<>();
+        List<Long> positions = new ArrayList<>();
+        DataInputStream input = null;
+        try {
+            input = new DataInputStream(new BufferedInputStream(sFile.openRead()));
+            if (input.readInt() != FILE_VERSION) {
+                PlayerLog.w(TAG, "unknown file version, ignore it.");
+                return;
+            }
+            int count = input.readInt();
+            for (int i = 0; i < count; i++) {
+                ids.add(input.readUTF());
+                positions.add(input.readLong());
+            }
+        } catch (FileNotFoundException e) {
+            return;
+        } catch (IOException e) {
+            PlayerLog.w(TAG, "load failed " + e.getMessage());
+        } finally {
+            closeQuietly(input);
+        }
+        synchronized (sLock) {
+            // 文件中按照从旧到新的顺序, 加载完成之前写入的记录更新, 保留在最后.
+            LinkedHashMap<String, Long> current = new LinkedHashMap<>(sPositions);
+            sPositions.clear();
+            for (int i = 0; i < ids.size(); i++) {
+                sPositions.put(ids.get(i), positions.get(i));
+            }
+            sPositions.putAll(current);
+        }
+        PlayerLog.d(TAG, "load " + ids.size() + " positions");
+    }
+
+    private static void write() {
+        List<String> ids;
+        List<Long> positions;
+        synchronized (sLock) {
+            if (!isDirty) {
+                return;
+            }
+            isDirty = false;
+            ids = new ArrayList<>(sPositions.size());
+            positions = new ArrayList<>(sPositions.size());
+            // LinkedHashMap 按照访问顺序迭代, 最旧的在前面.
+            for (Map.Entry<String, Long> entry : sPositions.entrySet()) {
+                ids.add(entry.getKey());
+                positions.add(entry.getValue());
+            }
+        }
+        FileOutputStream fileOutput = null;
+        try {
+            fileOutput = sFile.startWrite();
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(fileOutput));
+            output.writeInt(FILE_VERSION);
+            output.writeInt(ids.size());
+            for (int i = 0; i < ids.size(); i++) {
+                output.writeUTF(ids.get(i));
+                output.writeLong(positions.get(i));
+            }
+            output.flush();
+            sFile.finishWrite(fileOutput);
+        } catch (IOException e) {
+            PlayerLog.w(TAG, "write failed " + e.getMessage());
+            if (fileOutput != null) {
+                sFile.failWrite(fileOutput);
+            }
+            synchronized (sLock) {
+                isDirty = true;
+            }
+        }
+    }
+
+    private static void closeQuietly(@Nullable DataInputStream input) {
+        if (input == null) {
+            return;
+        }
+        try {
+            input.close();
+        } catch (IOException e) {
+            // ignore.
+        }
+    }
+}
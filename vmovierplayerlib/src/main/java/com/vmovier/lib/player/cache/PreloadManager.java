@@ -0,0 +1,267 @@
+package com.vmovier.lib.player.cache;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.source.hls.playlist.HlsMasterPlaylist;
+import com.google.android.exoplayer2.source.hls.playlist.HlsMediaPlaylist;
+import com.google.android.exoplayer2.source.hls.playlist.HlsPlaylist;
+import com.google.android.exoplayer2.source.hls.playlist.HlsPlaylistParser;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSourceInputStream;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.util.UriUtil;
+import com.google.android.exoplayer2.util.Util;
+import com.vmovier.lib.player.VideoViewDataSource;
+import com.vmovier.lib.player.internal.PlayerNetwork;
+import com.vmovier.lib.utils.PlayerLog;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * feed 流的预加载. 根据当前播放的位置(cursor), 在后台线程把后面 K 个视频的前 N 个字节读进 {@link MediaCache},
+ * 这样滑动到下一个视频时可以直接从磁盘读出首帧.
+ *
+ * cursor 变化以后, 正在进行的预加载会被取消, 然后从离 cursor 最近的视频开始重新预加载.
+ * HLS 的视频会预加载前面的分片, 其它视频预加载文件的前 N 个字节.
+ * 需要先开启 {@link MediaCache}, 否则不做任何事情.
+ */
+@SuppressWarnings("unused")
+public class PreloadManager {
+    private static final String TAG = PreloadManager.class.getSimpleName();
+
+    private static final int MSG_PRELOAD = 1;
+    private static final int BUFFER_SIZE = 8 * 1024;
+    // 记录已经预加载过的视频数量上限
+    private static final int MAX_RECORDS = 64;
+
+    private final Context mAppContext;
+    private final int mPreloadCount;
+    private final long mBytesPerItem;
+    private final long mByteBudget;
+
+    private final HandlerThread mPreloadThread;
+    private final PreloadHandler mPreloadHandler;
+    // 每次 cursor 或者 数据源 变化都会 +1, 后台线程发现不一致时立刻放弃当前任务.
+    private final AtomicInteger mGeneration = new AtomicInteger();
+
+    private volatile List<VideoViewDataSource> mDataSources = Collections.emptyList();
+    private volatile int mCursor = -1;
+    private volatile boolean isReleased = false;
+
+    /**
+     * @param context ApplicationContext
+     * @param preloadCount 预加载 cursor 之后的视频数量 K
+     * @param bytesPerItem 每个视频预加载的字节数 N
+     * @param byteBudget 一次 cursor 变化后, 所有视频预加载字节数的总和上限
+     */
+    public PreloadManager(@NonNull Context context, int preloadCount, long bytesPerItem, long byteBudget) {
+        this.mAppContext = context.getApplicationContext();
+        this.mPreloadCount = preloadCount;
+        this.mBytesPerItem = bytesPerItem;
+        this.mByteBudget = byteBudget;
+
+        mPreloadThread = new HandlerThread("preload", android.os.Process.THREAD_PRIORITY_BACKGROUND);
+        mPreloadThread.start();
+        mPreloadHandler = new PreloadHandler(mPreloadThread.getLooper());
+    }
+
+    public void setDataSources(@Nullable List<VideoViewDataSource> dataSources) {
+        mDataSources = dataSources == null ? Collections.<VideoViewDataSource>emptyList()
+                : Collections.unmodifiableList(new ArrayList<>(dataSources));
+        schedule();
+    }
+
+    /**
+     * @param cursor 当前正在播放的视频在列表中的位置
+     */
+    public void setCursor(int cursor) {
+        if (mCursor == cursor) {
+            return;
+        }
+        mCursor = cursor;
+        schedule();
+    }
+
+    public int getCursor() {
+        return mCursor;
+    }
+
+    /**
+     * 停止预加载并退出后台线程, 之后该对象不可再使用.
+     */
+    public void release() {
+        isReleased = true;
+        mGeneration.incrementAndGet();
+        mPreloadHandler.removeCallbacksAndMessages(null);
+        mPreloadThread.quit();
+    }
+
+    private void schedule() {
+        if (isReleased) {
+            return;
+        }
+        if (!MediaCache.isEnabled()) {
+            PlayerLog.d(TAG, "MediaCache is not enabled, skip preload.");
+            return;
+        }
+        int generation = mGeneration.incrementAndGet();
+        mPreloadHandler.removeCallbacksAndMessages(null);
+        mPreloadHandler.obtainMessage(MSG_PRELOAD, generation, mCursor, mDataSources).sendToTarget();
+    }
+
+    private boolean isCanceled(int generation) {
+        return generation != mGeneration.get();
+    }
+
+    private class PreloadHandler extends Handler {
+        // 只在预加载线程中访问. key 为 uri, value 为已经预加载的字节数.
+        private final Map<String, Long> mPreloadedBytes = new LinkedHashMap<String, Long>() {
+            @Override
+            protected boolean removeEldestEntry(Entry<String, Long> eldest) {
+                return size() > MAX_RECORDS;
+            }
+        };
+        private final byte[] mBuffer = new byte[BUFFER_SIZE];
+
+        PreloadHandler(Looper looper) {
+            super(looper);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void handleMessage(Message msg) {
+            if (msg.what != MSG_PRELOAD) {
+                return;
+            }
+            final int generation = msg.arg1;
+            final int cursor = msg.arg2;
+            final List<VideoViewDataSource> dataSources = (List<VideoViewDataSource>) msg.obj;
+            long remainBudget = mByteBudget;
+            // 离 cursor 越近 优先级越高.
+            for (int i = cursor + 1; i <= cursor + mPreloadCount && i < dataSources.size(); i++) {
+                if (isCanceled(generation) || remainBudget <= 0) {
+                    return;
+                }
+                VideoViewDataSource dataSource = dataSources.get(i);
+                if (dataSource == null || dataSource.uri == null) {
+                    continue;
+                }
+                long target = Math.min(mBytesPerItem, remainBudget);
+                String key = dataSource.uri.toString();
+                Long preloaded = mPreloadedBytes.get(key);
+                if (preloaded != null && preloaded >= target) {
+                    remainBudget -= preloaded;
+                    continue;
+                }
+                long read = preload(generation, dataSource, target);
+                if (read > 0) {
+                    mPreloadedBytes.put(key, read);
+                }
+                remainBudget -= read;
+            }
+        }
+
+        /**
+         * @return 实际读取的字节数
+         */
+        private long preload(int generation, VideoViewDataSource dataSource, long length) {
+            DataSource.Factory upstreamFactory = PlayerNetwork.buildDataSourceFactory(dataSource.headers);
+            DataSource.Factory cacheFactory = MediaCache.buildDataSourceFactory(upstreamFactory);
+            Uri uri = dataSource.uri;
+            String lastPathSegment = uri.getLastPathSegment();
+            long total;
+            if (lastPathSegment != null && Util.inferContentType(lastPathSegment) == C.TYPE_HLS) {
+                total = preloadHls(generation, upstreamFactory, cacheFactory, uri, length);
+            } else {
+                total = readThrough(generation, cacheFactory, uri, 0, length);
+            }
+            PlayerLog.d(TAG, "preload " + uri + " , bytes is " + total);
+            return total;
+        }
+
+        /**
+         * HLS 只预加载前面的分片. 如果是 master playlist 取第一个码率.
+         */
+        private long preloadHls(int generation, DataSource.Factory upstreamFactory,
+                                DataSource.Factory cacheFactory, Uri uri, long length) {
+            HlsPlaylist playlist = loadPlaylist(upstreamFactory, uri);
+            if (playlist instanceof HlsMasterPlaylist) {
+                HlsMasterPlaylist masterPlaylist = (HlsMasterPlaylist) playlist;
+                if (masterPlaylist.variants.isEmpty() || isCanceled(generation)) {
+                    return 0;
+                }
+                Uri variantUri = UriUtil.resolveToUri(masterPlaylist.baseUri, masterPlaylist.variants.get(0).url);
+                playlist = loadPlaylist(upstreamFactory, variantUri);
+            }
+            if (!(playlist instanceof HlsMediaPlaylist)) {
+                return 0;
+            }
+            HlsMediaPlaylist mediaPlaylist = (HlsMediaPlaylist) playlist;
+            long total = 0;
+            for (HlsMediaPlaylist.Segment segment : mediaPlaylist.segments) {
+                if (total >= length || isCanceled(generation)) {
+                    break;
+                }
+                Uri segmentUri = UriUtil.resolveToUri(mediaPlaylist.baseUri, segment.url);
+                long segmentLength = segment.byterangeLength == C.LENGTH_UNSET
+                        ? length - total : Math.min(segment.byterangeLength, length - total);
+                total += readThrough(generation, cacheFactory, segmentUri, segment.byterangeOffset, segmentLength);
+            }
+            return total;
+        }
+
+        private @Nullable HlsPlaylist loadPlaylist(DataSource.Factory factory, Uri uri) {
+            DataSourceInputStream inputStream = new DataSourceInputStream(factory.createDataSource(), new DataSpec(uri));
+            try {
+                return new HlsPlaylistParser().parse(uri, inputStream);
+            } catch (IOException e) {
+                PlayerLog.d(TAG, "load playlist failed " + uri + " , " + e.getMessage());
+                return null;
+            } finally {
+                Util.closeQuietly(inputStream);
+            }
+        }
+
+        /**
+         * 通过缓存读取 [position, position + length) 的数据, 读取的数据会写入缓存.
+         * @return 实际读取的字节数
+         */
+        private long readThrough(int generation, DataSource.Factory factory, Uri uri, long position, long length) {
+            DataSource source = factory.createDataSource();
+            long total = 0;
+            try {
+                source.open(new DataSpec(uri, position, length, null));
+                while (total < length && !isCanceled(generation)) {
+                    int read = source.read(mBuffer, 0, (int) Math.min(mBuffer.length, length - total));
+                    if (read == C.RESULT_END_OF_INPUT) {
+                        break;
+                    }
+                    total += read;
+                }
+            } catch (IOException e) {
+                PlayerLog.d(TAG, "preload failed " + uri + " , " + e.getMessage());
+            } finally {
+                try {
+                    source.close();
+                } catch (IOException e) {
+                    // ignore.
+                }
+            }
+            return total;
+        }
+    }
+}
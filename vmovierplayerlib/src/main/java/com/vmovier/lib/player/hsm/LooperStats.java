@@ -0,0 +1,164 @@
+package com.vmovier.lib.player.hsm;
+
+import android.os.SystemClock;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 一个 Looper 上所有状态机的消息统计, 多个 {@link StateMachine} 可以共用同一个对象.
+ * 只统计通过 StateMachine 发送的消息. 通过 {@link StateMachine#removeMessages(int)} 移除的消息以及状态机退出时丢弃的消息
+ * 会从队列深度中扣除; 被 defer 的消息在重新放回队列之前不计入队列深度.
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public class LooperStats {
+    private final String mName;
+    private volatile long mStatsStartTime = SystemClock.elapsedRealtime();
+
+    private final AtomicInteger mQueueDepth = new AtomicInteger();
+    private final AtomicInteger mMaxQueueDepth = new AtomicInteger();
+    private final AtomicInteger mStateMachineCount = new AtomicInteger();
+    private final AtomicLong mDispatchCount = new AtomicLong();
+    private final AtomicLong mBusyTimeNs = new AtomicLong();
+    private final AtomicLong mMaxDispatchTimeNs = new AtomicLong();
+    // 当前正在处理的消息开始的时间, 0 表示空闲. 只在 Looper 线程中写入.
+    private volatile long mDispatchStartNs = 0;
+
+    public LooperStats(String name) {
+        this.mName = name;
+    }
+
+    void onEnqueue() {
+        int depth = mQueueDepth.incrementAndGet();
+        int max;
+        while (depth > (max = mMaxQueueDepth.get())) {
+            if (mMaxQueueDepth.compareAndSet(max, depth)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * @param count 离开队列的消息数量: 开始处理, 入队失败或者被移除
+     */
+    void onDequeue(int count) {
+        if (mQueueDepth.addAndGet(-count) < 0) {
+            // 避免出现负数.
+            mQueueDepth.set(0);
+        }
+    }
+
+    void onDispatchStart() {
+        mDispatchStartNs = System.nanoTime();
+    }
+
+    void onDispatchEnd() {
+        long duration = System.nanoTime() - mDispatchStartNs;
+        mDispatchStartNs = 0;
+        mDispatchCount.incrementAndGet();
+        mBusyTimeNs.addAndGet(duration);
+        long max;
+        while (duration > (max = mMaxDispatchTimeNs.get())) {
+            if (mMaxDispatchTimeNs.compareAndSet(max, duration)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * 有新的状态机使用该 Looper.
+     */
+    public void onStateMachineAttached() {
+        mStateMachineCount.incrementAndGet();
+    }
+
+    /**
+     * 状态机不再使用该 Looper.
+     */
+    public void onStateMachineDetached() {
+        mStateMachineCount.decrementAndGet();
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * @return 已经发送 还没有开始处理的消息数量 (包括延时消息)
+     */
+    public int getQueueDepth() {
+        return mQueueDepth.get();
+    }
+
+    /**
+     * @return 队列深度的历史最大值
+     */
+    public int getMaxQueueDepth() {
+        return mMaxQueueDepth.get();
+    }
+
+    /**
+     * @return 当前使用该 Looper 的状态机数量
+     */
+    public int getStateMachineCount() {
+        return mStateMachineCount.get();
+    }
+
+    /**
+     * @return 已经处理的消息数量
+     */
+    public long getDispatchCount() {
+        return mDispatchCount.get();
+    }
+
+    /**
+     * @return 处理消息的累计耗时
+     */
+    public long getBusyTimeMs() {
+        return mBusyTimeNs.get() / 1000000;
+    }
+
+    /**
+     * @return 单条消息处理耗时的最大值
+     */
+    public long getMaxDispatchTimeMs() {
+        return mMaxDispatchTimeNs.get() / 1000000;
+    }
+
+    /**
+     * @return 当前正在处理的消息已经耗费的时间, 空闲时返回 0
+     */
+    public long getCurrentDispatchTimeMs() {
+        long start = mDispatchStartNs;
+        return start == 0 ? 0 : (System.nanoTime() - start) / 1000000;
+    }
+
+    /**
+     * @return 创建 (或者 {@link #resetStats()}) 以来 处理消息的时间占比, 0-1
+     */
+    public float getBusyRatio() {
+        long uptime = SystemClock.elapsedRealtime() - mStatsStartTime;
+        return uptime <= 0 ? 0 : Math.min(1f, (float) getBusyTimeMs() / uptime);
+    }
+
+    public void resetStats() {
+        mMaxQueueDepth.set(mQueueDepth.get());
+        mDispatchCount.set(0);
+        mBusyTimeNs.set(0);
+        mMaxDispatchTimeNs.set(0);
+        mStatsStartTime = SystemClock.elapsedRealtime();
+    }
+
+    @Override
+    public String toString() {
+        return "LooperStats{" +
+                "name=" + mName +
+                ", queueDepth=" + getQueueDepth() +
+                ", maxQueueDepth=" + getMaxQueueDepth() +
+                ", stateMachineCount=" + getStateMachineCount() +
+                ", dispatchCount=" + getDispatchCount() +
+                ", busyTimeMs=" + getBusyTimeMs() +
+                ", maxDispatchTimeMs=" + getMaxDispatchTimeMs() +
+                '}';
+    }
+}
@@ -20,6 +20,9 @@ import android.os.Message;
 
 public class State implements IState {
 
+    /** 在状态机中的编号, 日志只记录编号. 由 StateMachine#addState 设置 */
+    int mLogId = -1;
+
     /**
      * Constructor
      */
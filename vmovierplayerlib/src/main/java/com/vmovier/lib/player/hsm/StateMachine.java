@@ -22,16 +22,21 @@ import android.os.Looper;
 import android.os.Message;
 import android.text.TextUtils;
 import android.util.Log;
+import android.util.SparseIntArray;
 
 import java.io.FileDescriptor;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.Vector;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 public class StateMachine {
     // Name of the state machine and used as logging tag
@@ -69,33 +74,24 @@ public class StateMachine {
         /**
          * Constructor
          *
-         * @param msg
+         * @param time time stamp of the record
+         * @param what msg.what
+         * @param info the information of the message
          * @param state the state which handled the message
          * @param orgState is the first state the received the message but
          * did not processes the message.
          * @param transToState is the state that was transitioned to after the message was
          * processed.
          */
-        LogRec(StateMachine sm, Message msg, String info, IState state, IState orgState,
+        LogRec(StateMachine sm, long time, int what, String info, IState state, IState orgState,
                IState transToState) {
-            update(sm, msg, info, state, orgState, transToState);
-        }
-
-        /**
-         * Update the information in the record.
-         * @param state that handled the message
-         * @param orgState is the first state the received the message
-         * @param dstState is the state that was the transition target when logging
-         */
-        public void update(StateMachine sm, Message msg, String info, IState state, IState orgState,
-                           IState dstState) {
             mSm = sm;
-            mTime = System.currentTimeMillis();
-            mWhat = (msg != null) ? msg.what : 0;
+            mTime = time;
+            mWhat = what;
             mInfo = info;
             mState = state;
             mOrgState = orgState;
-            mDstState = dstState;
+            mDstState = transToState;
         }
 
         /**
@@ -174,23 +170,50 @@ public class StateMachine {
     /**
      * A list of log records including messages recently processed by the state machine.
      *
-     * The class maintains a list of log records including messages
-     * recently processed. The list is finite and may be set in the
-     * constructor or by calling setSize. The public interface also
-     * includes size which returns the number of recent records,
-     * count which is the number of records processed since the
-     * the last setSize, get which returns a record and
-     * add which adds a record.
+     * 固定容量的环形数组, 每条记录只保存基本类型 (时间, what, arg1, arg2, 状态编号), 记录时不分配对象也不拼接字符串.
+     * 只有状态机线程写入, 其它线程可以无锁读取: 每个位置带有序号, 读取前后序号一致才认为数据完整.
+     * {@link LogRec} 以及其中的字符串在读取 ({@link #get}, copyLogRecs, dump) 时才生成.
      */
     private static class LogRecords {
 
         private static final int DEFAULT_SIZE = 20;
+        private static final int STATE_NONE = -1;
+
+        private static class Ring {
+            final int capacity;
+            /** 每个位置当前保存的记录序号, -1 表示为空或者正在写入 */
+            final AtomicLongArray seqs;
+            final AtomicLongArray times;
+            final AtomicIntegerArray whats;
+            final AtomicIntegerArray arg1s;
+            final AtomicIntegerArray arg2s;
+            final AtomicIntegerArray stateIds;
+            final AtomicIntegerArray orgStateIds;
+            final AtomicIntegerArray dstStateIds;
+            /** 只有 addLogRec 传入的字符串, 普通消息为 null */
+            final AtomicReferenceArray<String> infos;
+            /** 写入过的记录总数, 只有状态机线程写入 */
+            volatile long count = 0;
+
+            Ring(int capacity) {
+                this.capacity = Math.max(1, capacity);
+                seqs = new AtomicLongArray(this.capacity);
+                times = new AtomicLongArray(this.capacity);
+                whats = new AtomicIntegerArray(this.capacity);
+                arg1s = new AtomicIntegerArray(this.capacity);
+                arg2s = new AtomicIntegerArray(this.capacity);
+                stateIds = new AtomicIntegerArray(this.capacity);
+                orgStateIds = new AtomicIntegerArray(this.capacity);
+                dstStateIds = new AtomicIntegerArray(this.capacity);
+                infos = new AtomicReferenceArray<String>(this.capacity);
+                for (int i = 0; i < this.capacity; i++) {
+                    seqs.set(i, -1);
+                }
+            }
+        }
 
-        private Vector<LogRec> mLogRecVector = new Vector<LogRec>();
-        private int mMaxSize = DEFAULT_SIZE;
-        private int mOldestIndex = 0;
-        private int mCount = 0;
-        private boolean mLogOnlyTransitions = false;
+        private volatile Ring mRing = new Ring(DEFAULT_SIZE);
+        private volatile boolean mLogOnlyTransitions = false;
 
         /**
          * private constructor use add
@@ -203,63 +226,84 @@ public class StateMachine {
          *
          * @param maxSize number of records to maintain at anyone time.
         */
-        synchronized void setSize(int maxSize) {
-            mMaxSize = maxSize;
-            mCount = 0;
-            mLogRecVector.clear();
+        void setSize(int maxSize) {
+            mRing = new Ring(maxSize);
         }
 
-        synchronized void setLogOnlyTransitions(boolean enable) {
+        void setLogOnlyTransitions(boolean enable) {
             mLogOnlyTransitions = enable;
         }
 
-        synchronized boolean logOnlyTransitions() {
+        boolean logOnlyTransitions() {
             return mLogOnlyTransitions;
         }
 
         /**
          * @return the number of recent records.
          */
-        synchronized int size() {
-            return mLogRecVector.size();
+        int size() {
+            Ring ring = mRing;
+            return (int) Math.min(ring.count, ring.capacity);
         }
 
         /**
          * @return the total number of records processed since size was set.
          */
-        synchronized int count() {
-            return mCount;
+        int count() {
+            return (int) mRing.count;
         }
 
         /**
          * Clear the list of records.
          */
-        synchronized void cleanup() {
-            mLogRecVector.clear();
+        void cleanup() {
+            mRing = new Ring(mRing.capacity);
         }
 
         /**
          * @return the information on a particular record. 0 is the oldest
          * record and size()-1 is the newest record. If the index is to
-         * large null is returned.
+         * large, or the record has been overwritten while reading, null is returned.
          */
-        synchronized LogRec get(int index) {
-            int nextIndex = mOldestIndex + index;
-            if (nextIndex >= mMaxSize) {
-                nextIndex -= mMaxSize;
+        LogRec get(StateMachine sm, State[] states, int index) {
+            Ring ring = mRing;
+            long count = ring.count;
+            long seq = Math.max(0, count - ring.capacity) + index;
+            if (index < 0 || seq >= count) {
+                return null;
             }
-            if (nextIndex >= size()) {
+            int slot = (int) (seq % ring.capacity);
+            if (ring.seqs.get(slot) != seq) {
+                return null;
+            }
+            long time = ring.times.get(slot);
+            int what = ring.whats.get(slot);
+            int arg1 = ring.arg1s.get(slot);
+            int arg2 = ring.arg2s.get(slot);
+            int stateId = ring.stateIds.get(slot);
+            int orgStateId = ring.orgStateIds.get(slot);
+            int dstStateId = ring.dstStateIds.get(slot);
+            String info = ring.infos.get(slot);
+            if (ring.seqs.get(slot) != seq) {
+                // 读取的过程中被覆盖了.
                 return null;
-            } else {
-                return mLogRecVector.get(nextIndex);
             }
+            if (info == null && sm != null) {
+                info = sm.getLogRecString(what, arg1, arg2);
+            }
+            return new LogRec(sm, time, what, info, findState(states, stateId),
+                    findState(states, orgStateId), findState(states, dstStateId));
+        }
+
+        private static State findState(State[] states, int id) {
+            return id >= 0 && id < states.length ? states[id] : null;
         }
 
         /**
-         * Add a processed message.
+         * Add a processed message. 只能在状态机线程中调用.
          *
          * @param msg
-         * @param messageInfo to be stored
+         * @param messageInfo to be stored, maybe null
          * @param state that handled the message
          * @param orgState is the first state the received the message but
          * did not processes the message.
@@ -267,19 +311,25 @@ public class StateMachine {
          * processed.
          *
          */
-        synchronized void add(StateMachine sm, Message msg, String messageInfo, IState state,
-                              IState orgState, IState transToState) {
-            mCount += 1;
-            if (mLogRecVector.size() < mMaxSize) {
-                mLogRecVector.add(new LogRec(sm, msg, messageInfo, state, orgState, transToState));
-            } else {
-                LogRec pmi = mLogRecVector.get(mOldestIndex);
-                mOldestIndex += 1;
-                if (mOldestIndex >= mMaxSize) {
-                    mOldestIndex = 0;
-                }
-                pmi.update(sm, msg, messageInfo, state, orgState, transToState);
-            }
+        void add(Message msg, String messageInfo, IState state, IState orgState, IState transToState) {
+            Ring ring = mRing;
+            long seq = ring.count;
+            int slot = (int) (seq % ring.capacity);
+            ring.seqs.set(slot, -1);
+            ring.times.set(slot, System.currentTimeMillis());
+            ring.whats.set(slot, msg != null ? msg.what : 0);
+            ring.arg1s.set(slot, msg != null ? msg.arg1 : 0);
+            ring.arg2s.set(slot, msg != null ? msg.arg2 : 0);
+            ring.stateIds.set(slot, stateId(state));
+            ring.orgStateIds.set(slot, stateId(orgState));
+            ring.dstStateIds.set(slot, stateId(transToState));
+            ring.infos.set(slot, messageInfo);
+            ring.seqs.set(slot, seq);
+            ring.count = seq + 1;
+        }
+
+        private static int stateId(IState state) {
+            return state instanceof State ? ((State) state).mLogId : STATE_NONE;
         }
     }
 
@@ -324,6 +374,15 @@ public class StateMachine {
         /** Reference to the StateMachine */
         private StateMachine mSm;
 
+        /** 所在 Looper 的统计, 可以为空 */
+        private LooperStats mLooperStats;
+
+        /**
+         * 每种消息还在队列中的数量, 移除消息时用来修正 LooperStats 的队列深度.
+         * 只在 mLooperStats 不为空时使用, 访问时需要持有它自己的锁.
+         */
+        private final SparseIntArray mPendingCounts = new SparseIntArray();
+
         /**
          * Information about a state.
          * Used to maintain the hierarchy.
@@ -360,6 +419,19 @@ public class StateMachine {
         /** The list of deferred messages */
         private ArrayList<Message> mDeferredMessages = new ArrayList<Message>();
 
+        /** 按编号排列的状态, 用于把日志中的状态编号还原. 写时复制, 其它线程可以直接读取 */
+        private volatile State[] mStateTable = new State[0];
+
+        /** 是否使用预先计算的切换表, 需要在 start 之前设置 */
+        private boolean mUseTransitionTable = false;
+
+        /**
+         * 预先计算的切换表, 下标为 [当前栈顶状态编号][目标状态编号].
+         * mEnterTable 为需要进入的状态 (目标状态在前), mCommonTable 为共同的祖先状态.
+         */
+        private StateInfo[][][] mEnterTable;
+        private StateInfo[][] mCommonTable;
+
         /**
          * State entered when transitionToHaltingState is called.
          */
@@ -381,6 +453,119 @@ public class StateMachine {
             }
         }
 
+        @Override
+        public boolean sendMessageAtTime(Message msg, long uptimeMillis) {
+            // 先计数再入队, 避免消息在计数之前就被处理.
+            int what = msg.what;
+            countEnqueue(what);
+            if (mSm != null) mSm.onMessageEnqueued(msg);
+            boolean sent = super.sendMessageAtTime(msg, uptimeMillis);
+            if (!sent) countDequeue(what);
+            return sent;
+        }
+
+        /** sendMessageAtFrontOfQueue 是 final 的, 需要统计时通过该方法发送 */
+        private boolean sendAtFront(Message msg) {
+            int what = msg.what;
+            countEnqueue(what);
+            if (mSm != null) mSm.onMessageEnqueued(msg);
+            boolean sent = sendMessageAtFrontOfQueue(msg);
+            if (!sent) countDequeue(what);
+            return sent;
+        }
+
+        private void countEnqueue(int what) {
+            LooperStats stats = mLooperStats;
+            if (stats == null) return;
+            synchronized (mPendingCounts) {
+                mPendingCounts.put(what, mPendingCounts.get(what) + 1);
+            }
+            stats.onEnqueue();
+        }
+
+        /** 消息离开了队列 (开始处理或者入队失败). 不是通过 StateMachine 发送的消息不计数 */
+        private void countDequeue(int what) {
+            LooperStats stats = mLooperStats;
+            if (stats == null) return;
+            synchronized (mPendingCounts) {
+                int count = mPendingCounts.get(what);
+                if (count <= 0) return;
+                if (count == 1) {
+                    mPendingCounts.delete(what);
+                } else {
+                    mPendingCounts.put(what, count - 1);
+                }
+            }
+            stats.onDequeue(1);
+        }
+
+        /** @see StateMachine#removeMessages(int) */
+        private void removeCountedMessages(int what) {
+            LooperStats stats = mLooperStats;
+            if (stats == null) {
+                removeMessages(what);
+                return;
+            }
+            int count;
+            synchronized (mPendingCounts) {
+                count = mPendingCounts.get(what);
+                mPendingCounts.delete(what);
+                removeMessages(what);
+            }
+            if (count > 0) stats.onDequeue(count);
+        }
+
+        /** 退出后队列中剩下的消息不会再被处理, 全部移除并从队列深度中扣除 */
+        private void removeAllCountedMessages() {
+            int count = 0;
+            synchronized (mPendingCounts) {
+                for (int i = 0; i < mPendingCounts.size(); i++) {
+                    count += mPendingCounts.valueAt(i);
+                }
+                mPendingCounts.clear();
+                removeCallbacksAndMessages(null);
+            }
+            LooperStats stats = mLooperStats;
+            if (stats != null && count > 0) stats.onDequeue(count);
+        }
+
+        /** @see StateMachine#setQueuedMessageWhat(Message, int) */
+        private void changeCountedWhat(Message msg, int what) {
+            if (mLooperStats == null) {
+                msg.what = what;
+                return;
+            }
+            synchronized (mPendingCounts) {
+                int count = mPendingCounts.get(msg.what);
+                if (count > 0) {
+                    if (count == 1) {
+                        mPendingCounts.delete(msg.what);
+                    } else {
+                        mPendingCounts.put(msg.what, count - 1);
+                    }
+                    mPendingCounts.put(what, mPendingCounts.get(what) + 1);
+                }
+                msg.what = what;
+            }
+        }
+
+        @Override
+        public void dispatchMessage(Message msg) {
+            if (mSm != null) mSm.onMessageDequeued(msg);
+            LooperStats stats = mLooperStats;
+            if (stats == null) {
+                super.dispatchMessage(msg);
+                return;
+            }
+            countDequeue(msg.what);
+            stats.onDispatchStart();
+            try {
+                super.dispatchMessage(msg);
+            } finally {
+                stats.onDispatchEnd();
+            }
+        }
+
         /**
          * Handle messages sent to the state machine by calling
          * the current state's processMessage. It also handles
@@ -445,13 +630,11 @@ public class StateMachine {
             if (mLogRecords.logOnlyTransitions()) {
                 /** Record only if there is a transition */
                 if (mDestState != null) {
-                    mLogRecords.add(mSm, mMsg, mSm.getLogRecString(mMsg), msgProcessedState,
-                            orgState, mDestState);
+                    mLogRecords.add(mMsg, null, msgProcessedState, orgState, mDestState);
                 }
             } else if (recordLogMsg) {
-                /** Record message */
-                mLogRecords.add(mSm, mMsg, mSm.getLogRecString(mMsg), msgProcessedState, orgState,
-                        mDestState);
+                /** Record message, 字符串在读取日志时才生成 */
+                mLogRecords.add(mMsg, null, msgProcessedState, orgState, mDestState);
             }
 
             State destState = mDestState;
@@ -533,6 +716,7 @@ public class StateMachine {
             mInitialState = null;
             mDestState = null;
             mDeferredMessages.clear();
+            removeAllCountedMessages();
             mHasQuit = true;
         }
 
@@ -560,6 +744,9 @@ public class StateMachine {
 
             mStateStack = new StateInfo[maxDepth];
             mTempStateStack = new StateInfo[maxDepth];
+            if (mUseTransitionTable) {
+                buildTransitionTable();
+            }
             setupInitialStateStack();
 
             /** Sending SM_INIT_CMD message to invoke enter methods asynchronously */
@@ -569,6 +756,41 @@ public class StateMachine {
             if (mDbg) mSm.log("completeConstruction: X");
         }
 
+        /**
+         * 状态栈总是从根状态到栈顶状态的一条链, 所以从任意栈顶状态切换到任意目标状态时,
+         * 需要退出和进入的状态都是固定的, 可以在 addState 结束以后一次计算好.
+         */
+        private final void buildTransitionTable() {
+            State[] states = mStateTable;
+            int count = states.length;
+            // 每个状态到根状态的链, 自己在前.
+            StateInfo[][] ancestors = new StateInfo[count][];
+            for (int id = 0; id < count; id++) {
+                ArrayList<StateInfo> chain = new ArrayList<StateInfo>();
+                for (StateInfo si = mStateInfo.get(states[id]); si != null; si = si.parentStateInfo) {
+                    chain.add(si);
+                }
+                ancestors[id] = chain.toArray(new StateInfo[chain.size()]);
+            }
+
+            mEnterTable = new StateInfo[count][count][];
+            mCommonTable = new StateInfo[count][count];
+            for (int from = 0; from < count; from++) {
+                List<StateInfo> active = Arrays.asList(ancestors[from]);
+                for (int to = 0; to < count; to++) {
+                    StateInfo[] destChain = ancestors[to];
+                    // 与 setupTempStateStackWithStatesToEnter 一致, 目标状态即使已经是 active 也要重新进入.
+                    int enterCount = 1;
+                    while (enterCount < destChain.length && !active.contains(destChain[enterCount])) {
+                        enterCount++;
+                    }
+                    mEnterTable[from][to] = Arrays.copyOf(destChain, enterCount);
+                    mCommonTable[from][to] = enterCount < destChain.length ? destChain[enterCount] : null;
+                }
+            }
+            if (mDbg) mSm.log("buildTransitionTable: state count=" + count);
+        }
+
         /**
          * Process the message. If the current state doesn't handle
          * it, call the states parent and so on. If it is never handled then
@@ -643,7 +865,7 @@ public class StateMachine {
             for (int i = mDeferredMessages.size() - 1; i >= 0; i--) {
                 Message curMsg = mDeferredMessages.get(i);
                 if (mDbg) mSm.log("moveDeferredMessageAtFrontOfQueue; what=" + curMsg.what);
-                sendMessageAtFrontOfQueue(curMsg);
+                sendAtFront(curMsg);
             }
             mDeferredMessages.clear();
         }
@@ -693,6 +915,15 @@ public class StateMachine {
              * even if it is active. This can happen if we are exiting/entering
              * the current state.
              */
+            if (mEnterTable != null && mStateStackTopIndex >= 0) {
+                int from = mStateStack[mStateStackTopIndex].state.mLogId;
+                int to = destState.mLogId;
+                StateInfo[] enter = mEnterTable[from][to];
+                System.arraycopy(enter, 0, mTempStateStack, 0, enter.length);
+                mTempStateStackCount = enter.length;
+                return mCommonTable[from][to];
+            }
+
             mTempStateStackCount = 0;
             StateInfo curStateInfo = mStateInfo.get(destState);
             do {
@@ -767,6 +998,10 @@ public class StateMachine {
             if (stateInfo == null) {
                 stateInfo = new StateInfo();
                 mStateInfo.put(state, stateInfo);
+                State[] table = Arrays.copyOf(mStateTable, mStateTable.length + 1);
+                state.mLogId = mStateTable.length;
+                table[state.mLogId] = state;
+                mStateTable = table;
             }
 
             // Validate that we aren't adding the same state in two different hierarchies.
@@ -840,7 +1075,7 @@ public class StateMachine {
         /** @see StateMachine#quitNow() */
         private final void quitNow() {
             if (mDbg) mSm.log("quitNow:");
-            sendMessageAtFrontOfQueue(obtainMessage(SM_QUIT_CMD, mSmHandlerObj));
+            sendAtFront(obtainMessage(SM_QUIT_CMD, mSmHandlerObj));
         }
 
         /** Validate that the message was sent by quit or quitNow. */
@@ -896,6 +1131,17 @@ public class StateMachine {
         initStateMachine(name, looper);
     }
 
+    /**
+     * Constructor creates a StateMachine using the looper, and records message stats of the looper.
+     *
+     * @param name of the state machine
+     * @param stats shared by all state machines on the same looper, may be null
+     */
+    protected StateMachine(String name, Looper looper, LooperStats stats) {
+        initStateMachine(name, looper);
+        mSmHandler.mLooperStats = stats;
+    }
+
     /**
      * Constructor creates a StateMachine using the handler.
      *
@@ -905,6 +1151,16 @@ public class StateMachine {
         initStateMachine(name, handler.getLooper());
     }
 
+    /**
+     * 使用预先计算的切换表, 状态切换时不再查找和遍历父状态. 需要在 {@link #startStateMachine()} 之前调用,
+     * 并且之后不能再 addState.
+     * 只预先计算状态切换的路径, 消息仍然交给各个状态的 processMessage 处理, 其中的 switch 本身已经按照 what 跳转.
+     * 开启前后每条消息的耗时可以用 demo 中的 StateMachineBenchmark 在设备上对比.
+     */
+    protected final void setUseTransitionTable(boolean enable) {
+        mSmHandler.mUseTransitionTable = enable;
+    }
+
     /**
      * Add a new state to the state machine
      * @param state the state to add
@@ -1087,18 +1343,23 @@ public class StateMachine {
         // mSmHandler can be null if the state machine has quit.
         SmHandler smh = mSmHandler;
         if (smh == null) return null;
-        return smh.mLogRecords.get(index);
+        return smh.mLogRecords.get(this, smh.mStateTable, index);
     }
 
     /**
-     * @return a copy of LogRecs as a collection
+     * @return a copy of LogRecs as a collection, from the oldest to the newest
      */
     public final Collection<LogRec> copyLogRecs() {
-        Vector<LogRec> vlr = new Vector<LogRec>();
+        ArrayList<LogRec> vlr = new ArrayList<LogRec>();
         SmHandler smh = mSmHandler;
         if (smh != null) {
-            for (LogRec lr : smh.mLogRecords.mLogRecVector) {
-                vlr.add(lr);
+            State[] states = smh.mStateTable;
+            int size = smh.mLogRecords.size();
+            for (int i = 0; i < size; i++) {
+                LogRec lr = smh.mLogRecords.get(this, states, i);
+                if (lr != null) {
+                    vlr.add(lr);
+                }
             }
         }
         return vlr;
@@ -1112,7 +1373,7 @@ public class StateMachine {
         // mSmHandler can be null if the state machine has quit.
         SmHandler smh = mSmHandler;
         if (smh == null) return;
-        smh.mLogRecords.add(this, smh.getCurrentMessage(), string, smh.getCurrentState(),
+        smh.mLogRecords.add(smh.getCurrentMessage(), string, smh.getCurrentState(),
                 smh.mStateStack[smh.mStateStackTopIndex].state, smh.mDestState);
     }
 
@@ -1126,11 +1387,11 @@ public class StateMachine {
     /**
      * Return a string to be logged by LogRec, default
      * is an empty string. Override if additional information is desired.
+     * 在读取日志时才会调用, 消息已经被回收, 只能拿到 what, arg1, arg2.
      *
-     * @param msg that was processed
      * @return information to be logged as a String
      */
-    protected String getLogRecString(Message msg) {
+    protected String getLogRecString(int what, int arg1, int arg2) {
         return "";
     }
 
@@ -1417,7 +1678,7 @@ public class StateMachine {
         SmHandler smh = mSmHandler;
         if (smh == null) return;
 
-        smh.sendMessageAtFrontOfQueue(obtainMessage(what));
+        smh.sendAtFront(obtainMessage(what));
     }
 
     /**
@@ -1431,7 +1692,7 @@ public class StateMachine {
         SmHandler smh = mSmHandler;
         if (smh == null) return;
 
-        smh.sendMessageAtFrontOfQueue(obtainMessage(what, obj));
+        smh.sendAtFront(obtainMessage(what, obj));
     }
 
     /**
@@ -1445,7 +1706,7 @@ public class StateMachine {
         SmHandler smh = mSmHandler;
         if (smh == null) return;
 
-        smh.sendMessageAtFrontOfQueue(obtainMessage(what, arg1));
+        smh.sendAtFront(obtainMessage(what, arg1));
     }
 
 
@@ -1460,7 +1721,7 @@ public class StateMachine {
         SmHandler smh = mSmHandler;
         if (smh == null) return;
 
-        smh.sendMessageAtFrontOfQueue(obtainMessage(what, arg1, arg2));
+        smh.sendAtFront(obtainMessage(what, arg1, arg2));
     }
 
     /**
@@ -1474,7 +1735,7 @@ public class StateMachine {
         SmHandler smh = mSmHandler;
         if (smh == null) return;
 
-        smh.sendMessageAtFrontOfQueue(obtainMessage(what, arg1, arg2, obj));
+        smh.sendAtFront(obtainMessage(what, arg1, arg2, obj));
     }
 
     /**
@@ -1488,7 +1749,7 @@ public class StateMachine {
         SmHandler smh = mSmHandler;
         if (smh == null) return;
 
-        smh.sendMessageAtFrontOfQueue(msg);
+        smh.sendAtFront(msg);
     }
 
     /**
@@ -1500,7 +1761,7 @@ public class StateMachine {
         SmHandler smh = mSmHandler;
         if (smh == null) return;
 
-        smh.removeMessages(what);
+        smh.removeCountedMessages(what);
     }
 
     /**
@@ -1585,8 +1846,9 @@ public class StateMachine {
         // resulting string is to long it won't be displayed.
         pw.println(getName() + ":");
         pw.println(" total records=" + getLogRecCount());
-        for (int i = 0; i < getLogRecSize(); i++) {
-            pw.println(" rec[" + i + "]: " + getLogRec(i).toString());
+        int i = 0;
+        for (LogRec lr : copyLogRecs()) {
+            pw.println(" rec[" + i++ + "]: " + lr.toString());
             pw.flush();
         }
         pw.println("curState=" + getCurrentState().getName());
@@ -1681,4 +1943,29 @@ public class StateMachine {
      * @param msg 当前的Message
      */
     protected void performFinalMessage(Message msg) {}
+
+    /**
+     * 消息离开队列, 即将被处理时在状态机线程中调用. 之后不能再通过 {@link #setQueuedMessageWhat(Message, int)} 修改它.
+     * @param msg 当前的Message
+     */
+    protected void onMessageDequeued(Message msg) {}
+
+    /**
+     * 修改还在队列中的消息的 what, 同时修正队列深度的统计. 调用者需要保证 msg 还没有离开队列,
+     * 比如和 {@link #onMessageDequeued(Message)} 使用同一把锁.
+     */
+    protected final void setQueuedMessageWhat(Message msg, int what) {
+        SmHandler smh = mSmHandler;
+        if (smh == null) {
+            msg.what = what;
+            return;
+        }
+        smh.changeCountedWhat(msg, what);
+    }
+
+    /**
+     * 每条消息加入队列之前调用 (包括延时消息以及被 defer 之后重新放回队列的消息), 可能在任意线程.
+     * @param msg 即将加入队列的Message
+     */
+    protected void onMessageEnqueued(Message msg) {}
 }
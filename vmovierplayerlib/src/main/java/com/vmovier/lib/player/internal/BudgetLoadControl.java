@@ -0,0 +1,119 @@
+package com.vmovier.lib.player.internal;
+
+import android.support.annotation.NonNull;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.DefaultLoadControl;
+import com.google.android.exoplayer2.LoadControl;
+import com.google.android.exoplayer2.Renderer;
+import com.google.android.exoplayer2.source.TrackGroupArray;
+import com.google.android.exoplayer2.trackselection.TrackSelectionArray;
+import com.google.android.exoplayer2.upstream.Allocator;
+import com.google.android.exoplayer2.upstream.DefaultAllocator;
+import com.vmovier.lib.player.BufferPolicy;
+
+/**
+ * 在 DefaultLoadControl 的基础上增加字节上限: BufferPolicy 中的上限和 {@link BufferBudget} 分到的额度取较小值.
+ * 超过上限后, 只要缓冲够起播就停止加载, 并且允许直接起播, 不会因为内存不足一直卡在缓冲中.
+ *
+ * prepare 之后加入 BufferBudget, stop 或者 release 之后离开. 除了 setPriority 以外的方法都在 ExoPlayer 的播放线程中调用.
+ */
+class BudgetLoadControl implements LoadControl {
+    private final DefaultAllocator mAllocator;
+    private final DefaultLoadControl mDelegate;
+    private final long mBufferForPlaybackUs;
+    private volatile long mPolicyBytes;
+    private volatile long mBudgetBytes = Long.MAX_VALUE;
+    private volatile int mPriority;
+    private volatile boolean isTrimmed = false;
+
+    BudgetLoadControl(@NonNull BufferPolicy policy, int priority) {
+        mAllocator = new DefaultAllocator(true, C.DEFAULT_BUFFER_SEGMENT_SIZE);
+        mDelegate = new DefaultLoadControl(mAllocator, policy.minBufferMs, policy.maxBufferMs,
+                policy.bufferForPlaybackMs, policy.bufferForPlaybackAfterRebufferMs);
+        mBufferForPlaybackUs = policy.bufferForPlaybackMs * 1000L;
+        mPolicyBytes = policy.maxBufferBytes;
+        mPriority = priority;
+    }
+
+    void setMaxBufferBytes(long maxBufferBytes) {
+        mPolicyBytes = maxBufferBytes;
+    }
+
+    void setPriority(int priority) {
+        if (mPriority != priority) {
+            mPriority = priority;
+            BufferBudget.onPriorityChanged();
+        }
+    }
+
+    /**
+     * @param trimmed 为 true 时只缓冲到够起播为止
+     */
+    void setTrimmed(boolean trimmed) {
+        isTrimmed = trimmed;
+    }
+
+    int getPriority() {
+        return mPriority;
+    }
+
+    void setBudgetBytes(long budgetBytes) {
+        mBudgetBytes = budgetBytes;
+    }
+
+    long getAllocatedBytes() {
+        return mAllocator.getTotalBytesAllocated();
+    }
+
+    private boolean isOverLimit() {
+        return mAllocator.getTotalBytesAllocated() >= Math.min(mPolicyBytes, mBudgetBytes);
+    }
+
+    @Override
+    public void onPrepared() {
+        mDelegate.onPrepared();
+        BufferBudget.register(this);
+    }
+
+    @Override
+    public void onTracksSelected(Renderer[] renderers, TrackGroupArray trackGroups,
+                                 TrackSelectionArray trackSelections) {
+        mDelegate.onTracksSelected(renderers, trackGroups, trackSelections);
+    }
+
+    @Override
+    public void onStopped() {
+        mDelegate.onStopped();
+        BufferBudget.unregister(this);
+    }
+
+    @Override
+    public void onReleased() {
+        mDelegate.onReleased();
+        BufferBudget.unregister(this);
+    }
+
+    @Override
+    public Allocator getAllocator() {
+        return mAllocator;
+    }
+
+    @Override
+    public boolean shouldStartPlayback(long bufferedDurationUs, boolean rebuffering) {
+        if (mDelegate.shouldStartPlayback(bufferedDurationUs, rebuffering)) {
+            return true;
+        }
+        // 超过上限后不会再加载到卡顿恢复所需的时长, 够起播就开始.
+        return (isTrimmed || isOverLimit()) && bufferedDurationUs >= mBufferForPlaybackUs;
+    }
+
+    @Override
+    public boolean shouldContinueLoading(long bufferedDurationUs) {
+        boolean shouldContinue = mDelegate.shouldContinueLoading(bufferedDurationUs);
+        if (shouldContinue && bufferedDurationUs >= mBufferForPlaybackUs && (isTrimmed || isOverLimit())) {
+            return false;
+        }
+        return shouldContinue;
+    }
+}
@@ -0,0 +1,100 @@
+package com.vmovier.lib.player.internal;
+
+import android.support.annotation.NonNull;
+
+import com.vmovier.lib.utils.PlayerLog;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 所有播放器共享的缓冲内存预算. 正在加载的播放器按照优先级的权重瓜分总预算,
+ * 播放器加入, 离开或者修改优先级时重新分配. 分到的额度和 BufferPolicy 中的字节上限取较小值.
+ *
+ * 默认 {@value #DEFAULT_TOTAL_BYTES} 字节, 内存较小的机型可以通过 {@link #setTotalBytes(long)} 调小.
+ */
+@SuppressWarnings("unused")
+public class BufferBudget {
+    private static final String TAG = BufferBudget.class.getSimpleName();
+
+    public static final long DEFAULT_TOTAL_BYTES = 64 * 1024 * 1024;
+
+    private static final Object sLock = new Object();
+    private static final List<BudgetLoadControl> sControls = new ArrayList<>();
+    private static long sTotalBytes = DEFAULT_TOTAL_BYTES;
+
+    public static void setTotalBytes(long totalBytes) {
+        if (totalBytes <= 0) {
+            throw new IllegalArgumentException("totalBytes must be positive.");
+        }
+        synchronized (sLock) {
+            sTotalBytes = totalBytes;
+            redistributeLocked();
+        }
+    }
+
+    public static long getTotalBytes() {
+        synchronized (sLock) {
+            return sTotalBytes;
+        }
+    }
+
+    /**
+     * @return 所有播放器当前占用的缓冲内存
+     */
+    public static long getAllocatedBytes() {
+        long allocated = 0;
+        synchronized (sLock) {
+            for (BudgetLoadControl control : sControls) {
+                allocated += control.getAllocatedBytes();
+            }
+        }
+        return allocated;
+    }
+
+    static void register(@NonNull BudgetLoadControl control) {
+        synchronized (sLock) {
+            if (!sControls.contains(control)) {
+                sControls.add(control);
+                redistributeLocked();
+            }
+        }
+    }
+
+    static void unregister(@NonNull BudgetLoadControl control) {
+        synchronized (sLock) {
+            if (sControls.remove(control)) {
+                redistributeLocked();
+            }
+        }
+    }
+
+    static void onPriorityChanged() {
+        synchronized (sLock) {
+            redistributeLocked();
+        }
+    }
+
+    private static void redistributeLocked() {
+        int totalWeight = 0;
+        for (BudgetLoadControl control : sControls) {
+            totalWeight += weightOf(control.getPriority());
+        }
+        for (BudgetLoadControl control : sControls) {
+            control.setBudgetBytes(sTotalBytes * weightOf(control.getPriority()) / totalWeight);
+        }
+        PlayerLog.d(TAG, "redistribute " + sTotalBytes + " bytes to " + sControls.size() + " players");
+    }
+
+    private static int weightOf(int priority) {
+        switch (priority) {
+            case IInternalPlayer.PRIORITY_FOCUSED:
+                return 4;
+            case IInternalPlayer.PRIORITY_VISIBLE:
+                return 2;
+            case IInternalPlayer.PRIORITY_BACKGROUND:
+            default:
+                return 1;
+        }
+    }
+}
@@ -4,9 +4,12 @@ import android.annotation.TargetApi;
 import android.content.Context;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Looper;
+import android.support.annotation.Nullable;
 import android.view.Surface;
 import android.view.SurfaceHolder;
 
+import com.vmovier.lib.player.BufferPolicy;
 import com.vmovier.lib.player.MediaError;
 
 import java.io.FileDescriptor;
@@ -35,10 +38,23 @@ public interface IInternalPlayer {
 
     int MEDIA_INFO_VIDEO_ROTATION_CHANGED = 10001;
     int MEDIA_INFO_AUDIO_RENDERING_START = 10002;
+    int MEDIA_INFO_PLAYLIST_INDEX_CHANGED = 10003; // 播放列表切换到了下一个地址, extra 为新的位置
 
     int PLAYERTYPE_ANDROIDMEDIA = 1;
     int PLAYERTYPE_EXO = 2;
 
+    // seek 模式
+    int SEEK_MODE_DEFAULT = -1; // 播放器自己的默认行为, 与 seekTo(long) 一致
+    int SEEK_MODE_EXACT = 0; // 精确到指定位置
+    int SEEK_MODE_CLOSEST_SYNC = 1; // 最近的关键帧
+    int SEEK_MODE_PREVIOUS_SYNC = 2; // 之前最近的关键帧
+    int SEEK_MODE_NEXT_SYNC = 3; // 之后最近的关键帧
+
+    // 播放器优先级, 决定分到的缓冲内存
+    int PRIORITY_BACKGROUND = 1; // 不可见, 比如预加载
+    int PRIORITY_VISIBLE = 2; // 可见但不是用户关注的
+    int PRIORITY_FOCUSED = 3; // 用户正在观看的
+
     void setDisplay(SurfaceHolder sh);
 
     void setSurface(Surface surface);
@@ -74,6 +90,11 @@ public interface IInternalPlayer {
 
     void seekTo(long msec) throws IllegalStateException;
 
+    /**
+     * @param seekMode 不支持的模式按照 {@link #SEEK_MODE_DEFAULT} 处理
+     */
+    void seekTo(long msec, int seekMode) throws IllegalStateException;
+
     long getCurrentPosition();
 
     long getDuration();
@@ -155,5 +176,40 @@ public interface IInternalPlayer {
 
     boolean isLooping();
 
+    /**
+     * 只播放音频, 不再选择视频轨道, 也不会创建视频解码器. 可以在 prepare 前后随时切换.
+     */
+    void setAudioOnly(boolean audioOnly);
+
+    /**
+     * 限制选择的视频分辨率, 可以在播放中修改, 自适应码流会切换到新的分辨率, 不需要重新 prepare.
+     * @param maxWidth 不限制时传 Integer.MAX_VALUE
+     * @param maxHeight 不限制时传 Integer.MAX_VALUE
+     */
+    void setMaxVideoSize(int maxWidth, int maxHeight);
+
+    /**
+     * 时长相关的参数在 prepareAsync 创建播放器时生效, 字节上限立即生效.
+     */
+    void setBufferPolicy(BufferPolicy policy);
+
+    void setPriority(int priority);
+
+    /**
+     * 暂停状态下丢弃已经缓冲的数据, 保留播放位置, 之后只缓冲到够起播为止, start 之后恢复正常缓冲.
+     */
+    void trimBuffers();
+
+    /**
+     * @return 缓冲数据当前占用的内存, 无法统计时返回 0
+     */
+    long getAllocatedBytes();
+
+    /**
+     * @return 必须在该 Looper 上调用 release, 可以在任意线程 release 时返回 null
+     */
+    @Nullable
+    Looper getReleaseLooper();
+
     int getPlayerType();
 }
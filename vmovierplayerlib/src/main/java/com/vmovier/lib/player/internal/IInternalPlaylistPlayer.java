@@ -0,0 +1,37 @@
+package com.vmovier.lib.player.internal;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.vmovier.lib.player.VideoViewDataSource;
+
+import java.util.List;
+
+/**
+ * 支持播放列表的底层播放器. 列表中的地址拼接成一个整体, 在地址之间连续缓冲, 切换时没有黑屏.
+ * 当前播放的位置发生变化时 通过 {@link IInternalPlayer#MEDIA_INFO_PLAYLIST_INDEX_CHANGED} 通知, extra 为新的位置.
+ * 只有全部播放完成才会回调 onCompletion.
+ */
+public interface IInternalPlaylistPlayer extends IInternalPlayer {
+    /**
+     * 代替 setDataSource, 在 prepareAsync 之前调用.
+     */
+    void setPlaylist(@NonNull List<VideoViewDataSource> items, int startIndex);
+
+    void addPlaylistItem(int index, @NonNull VideoViewDataSource item);
+
+    void removePlaylistItem(int index);
+
+    void movePlaylistItem(int fromIndex, int toIndex);
+
+    /**
+     * 从头开始播放 index 位置的地址.
+     */
+    void skipToPlaylistItem(int index);
+
+    /**
+     * @return 当前正在播放的地址, 没有使用播放列表时返回 null
+     */
+    @Nullable
+    VideoViewDataSource getCurrentPlaylistItem();
+}
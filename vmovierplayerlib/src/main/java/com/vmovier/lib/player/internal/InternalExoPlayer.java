@@ -31,6 +31,10 @@ class InternalExoPlayer extends SimpleExoPlayer {
         return newInstance(new DefaultRenderersFactory(context), trackSelector);
     }
 
+    static InternalExoPlayer newInstance(Context context, TrackSelector trackSelector, LoadControl loadControl) {
+        return newInstance(new DefaultRenderersFactory(context), trackSelector, loadControl);
+    }
+
     static InternalExoPlayer newInstance(RenderersFactory renderersFactory, TrackSelector trackSelector) {
         return newInstance(renderersFactory, trackSelector, new DefaultLoadControl());
     }
@@ -0,0 +1,218 @@
+package com.vmovier.lib.player.internal;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+
+import com.vmovier.lib.utils.PlayerLog;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 在后台线程释放底层播放器. 部分机型上 MediaPlayer 的 release 会阻塞几百毫秒,
+ * 放在状态机线程中执行会拖慢下一个视频的起播.
+ *
+ * 同时最多有 {@value #MAX_CONCURRENT} 个线程在释放. 某个 release 超过 {@value #RELEASE_TIMEOUT_MS} ms 时,
+ * 认为该线程已经卡死, 额外补充一个线程 (最多 {@value #MAX_THREADS} 个), 后面的播放器不会被它拖住.
+ * 卡住的 release 结束后 补充的线程会被收回.
+ *
+ * {@link IInternalPlayer#getReleaseLooper()} 不为空的播放器 (ExoPlayer) 不能跨线程使用,
+ * release 会 post 回它自己的 Looper, 排在已经在队列中的消息 (比如下一个视频的 prepare) 之后执行.
+ * 注意: 这种情况下 release 仍然会阻塞该 Looper, 也就是创建它的状态机线程, 以及同一个 Looper 上的其它播放器,
+ * 不受上面的并发数限制, 也不会补充线程, 超时只会记录在 {@link #getTimeoutCount()} 中.
+ * ExoPlayer 2.6 的内部状态只在创建它的 Looper 上更新, 而状态机需要同步调用它, 所以没有把它放到单独的 Looper 上.
+ *
+ * 调用前需要先清空底层播放器的回调以及 Surface.
+ */
+@SuppressWarnings("unused")
+public class InternalPlayerReaper {
+    private static final String TAG = InternalPlayerReaper.class.getSimpleName();
+
+    private static final int MAX_CONCURRENT = 2;
+    private static final int MAX_THREADS = 4;
+    private static final long RELEASE_TIMEOUT_MS = 3000;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static final AtomicInteger sPendingCount = new AtomicInteger();
+    private static final AtomicLong sReleasedCount = new AtomicLong();
+    private static final AtomicLong sTimeoutCount = new AtomicLong();
+    private static final AtomicLong sMaxReleaseTimeMs = new AtomicLong();
+
+    private static ThreadPoolExecutor sExecutor;
+    private static Handler sWatchdogHandler;
+
+    private static synchronized void ensureStarted() {
+        if (sExecutor != null) {
+            return;
+        }
+        final AtomicInteger threadIndex = new AtomicInteger();
+        sExecutor = new ThreadPoolExecutor(MAX_CONCURRENT, MAX_CONCURRENT, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable r) {
+                return new Thread(r, "player-reaper-" + threadIndex.getAndIncrement());
+            }
+        });
+        sExecutor.allowCoreThreadTimeOut(true);
+        HandlerThread watchdogThread = new HandlerThread("player-reaper-watchdog");
+        watchdogThread.start();
+        sWatchdogHandler = new Handler(watchdogThread.getLooper());
+    }
+
+    /**
+     * 异步释放底层播放器, 立即返回.
+     */
+    public static void release(@NonNull final IInternalPlayer player) {
+        sPendingCount.incrementAndGet();
+        Looper looper = player.getReleaseLooper();
+        ensureStarted();
+        if (looper != null) {
+            new Handler(looper).post(new Runnable() {
+                @Override
+                public void run() {
+                    final ReleaseTask task = new ReleaseTask();
+                    Runnable watchdog = new Runnable() {
+                        @Override
+                        public void run() {
+                            onLooperReleaseTimeout(player, task);
+                        }
+                    };
+                    sWatchdogHandler.postDelayed(watchdog, RELEASE_TIMEOUT_MS);
+                    long start = SystemClock.elapsedRealtime();
+                    try {
+                        releaseQuietly(player);
+                    } finally {
+                        sWatchdogHandler.removeCallbacks(watchdog);
+                        onTaskFinished(task);
+                        onReleased(start);
+                    }
+                }
+            });
+            return;
+        }
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final ReleaseTask task = new ReleaseTask();
+                Runnable watchdog = new Runnable() {
+                    @Override
+                    public void run() {
+                        onReleaseTimeout(player, task);
+                    }
+                };
+                sWatchdogHandler.postDelayed(watchdog, RELEASE_TIMEOUT_MS);
+                long start = SystemClock.elapsedRealtime();
+                try {
+                    releaseQuietly(player);
+                } finally {
+                    sWatchdogHandler.removeCallbacks(watchdog);
+                    onTaskFinished(task);
+                    onReleased(start);
+                }
+            }
+        });
+    }
+
+    private static void releaseQuietly(IInternalPlayer player) {
+        try {
+            player.release();
+        } catch (RuntimeException e) {
+            PlayerLog.w(TAG, "release failed " + e);
+        }
+    }
+
+    private static void onReleased(long start) {
+        sPendingCount.decrementAndGet();
+        sReleasedCount.incrementAndGet();
+        updateMaxReleaseTime(SystemClock.elapsedRealtime() - start);
+    }
+
+    private static synchronized void onReleaseTimeout(IInternalPlayer player, ReleaseTask task) {
+        if (task.isFinished) {
+            return;
+        }
+        sTimeoutCount.incrementAndGet();
+        int poolSize = sExecutor.getCorePoolSize();
+        PlayerLog.w(TAG, "release timeout " + player + " , pool size is " + poolSize);
+        if (poolSize < MAX_THREADS) {
+            // 卡住的线程还占着位置, 补充一个线程继续处理队列.
+            sExecutor.setMaximumPoolSize(poolSize + 1);
+            sExecutor.setCorePoolSize(poolSize + 1);
+            task.isPoolGrown = true;
+        }
+    }
+
+    /**
+     * 在自己 Looper 上释放的播放器超时, 无法补充线程, 只记录下来.
+     */
+    private static synchronized void onLooperReleaseTimeout(IInternalPlayer player, ReleaseTask task) {
+        if (task.isFinished) {
+            return;
+        }
+        sTimeoutCount.incrementAndGet();
+        PlayerLog.w(TAG, "release timeout on looper " + player);
+    }
+
+    private static synchronized void onTaskFinished(ReleaseTask task) {
+        task.isFinished = true;
+        if (task.isPoolGrown) {
+            // 卡住的 release 结束了, 收回为它补充的线程. 缩小时先改 core 再改 maximum.
+            int poolSize = Math.max(MAX_CONCURRENT, sExecutor.getCorePoolSize() - 1);
+            sExecutor.setCorePoolSize(poolSize);
+            sExecutor.setMaximumPoolSize(poolSize);
+            PlayerLog.d(TAG, "release finished after timeout, pool size is " + poolSize);
+        }
+    }
+
+    /**
+     * 单次后台释放的状态, 只在持有 InternalPlayerReaper.class 锁时访问.
+     */
+    private static class ReleaseTask {
+        boolean isFinished = false;
+        boolean isPoolGrown = false;
+    }
+
+    private static void updateMaxReleaseTime(long duration) {
+        long max;
+        while (duration > (max = sMaxReleaseTimeMs.get())) {
+            if (sMaxReleaseTimeMs.compareAndSet(max, duration)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * @return 正在释放以及排队等待释放的播放器数量
+     */
+    public static int getPendingCount() {
+        return sPendingCount.get();
+    }
+
+    /**
+     * @return 已经释放完成的播放器数量
+     */
+    public static long getReleasedCount() {
+        return sReleasedCount.get();
+    }
+
+    /**
+     * @return 释放超时的次数
+     */
+    public static long getTimeoutCount() {
+        return sTimeoutCount.get();
+    }
+
+    /**
+     * @return 单次释放耗时的最大值
+     */
+    public static long getMaxReleaseTimeMs() {
+        return sMaxReleaseTimeMs.get();
+    }
+}
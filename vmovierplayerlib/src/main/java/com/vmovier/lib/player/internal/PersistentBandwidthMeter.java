@@ -0,0 +1,64 @@
+package com.vmovier.lib.player.internal;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+
+import com.google.android.exoplayer2.upstream.BandwidthMeter;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.DefaultBandwidthMeter;
+import com.google.android.exoplayer2.upstream.TransferListener;
+
+/**
+ * 带持久化的带宽估算. 实际估算交给 {@link DefaultBandwidthMeter},
+ * 每次得到新的采样后把估算值写入 SharedPreferences, 下次启动在还没有采样时返回上次的估算值,
+ * 这样 {@link com.google.android.exoplayer2.trackselection.AdaptiveTrackSelection} 一开始就能选择合适的码率.
+ */
+class PersistentBandwidthMeter implements BandwidthMeter, TransferListener<Object> {
+    private static final String PREFS_NAME = "vmovier_player_network";
+    private static final String KEY_BITRATE_ESTIMATE = "bitrate_estimate";
+
+    private final SharedPreferences mPreferences;
+    private final DefaultBandwidthMeter mDelegate;
+    private volatile long mPersistedEstimate;
+
+    PersistentBandwidthMeter(Context context, Handler eventHandler) {
+        mPreferences = context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        mPersistedEstimate = mPreferences.getLong(KEY_BITRATE_ESTIMATE, NO_ESTIMATE);
+        mDelegate = new DefaultBandwidthMeter(eventHandler, new EventListener() {
+            @Override
+            public void onBandwidthSample(int elapsedMs, long bytes, long bitrate) {
+                persist(mDelegate.getBitrateEstimate());
+            }
+        });
+    }
+
+    @Override
+    public long getBitrateEstimate() {
+        long estimate = mDelegate.getBitrateEstimate();
+        return estimate == NO_ESTIMATE ? mPersistedEstimate : estimate;
+    }
+
+    @Override
+    public void onTransferStart(Object source, DataSpec dataSpec) {
+        mDelegate.onTransferStart(source, dataSpec);
+    }
+
+    @Override
+    public void onBytesTransferred(Object source, int bytesTransferred) {
+        mDelegate.onBytesTransferred(source, bytesTransferred);
+    }
+
+    @Override
+    public void onTransferEnd(Object source) {
+        mDelegate.onTransferEnd(source);
+    }
+
+    private void persist(long estimate) {
+        if (estimate == NO_ESTIMATE || estimate == mPersistedEstimate) {
+            return;
+        }
+        mPersistedEstimate = estimate;
+        mPreferences.edit().putLong(KEY_BITRATE_ESTIMATE, estimate).apply();
+    }
+}
@@ -0,0 +1,110 @@
+package com.vmovier.lib.player.internal;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.google.android.exoplayer2.ext.okhttp.OkHttpDataSourceFactory;
+import com.google.android.exoplayer2.upstream.BandwidthMeter;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DefaultDataSource;
+import com.google.android.exoplayer2.upstream.DefaultDataSourceFactory;
+import com.google.android.exoplayer2.upstream.DefaultHttpDataSource;
+import com.google.android.exoplayer2.upstream.HttpDataSource;
+import com.google.android.exoplayer2.util.Util;
+import com.vmovier.lib.utils.PlayerLog;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+
+/**
+ * 所有播放器共享的网络层, 由 {@link com.vmovier.lib.Player#init(Context)} 初始化.
+ * 1. 一个带持久化的带宽估算, 所有播放器的下载都会参与估算.
+ * 2. 一个共享的 HttpDataSource.Factory. 底层使用播放器自己的 OkHttpClient 以及连接池,
+ *    所有播放器使用相同的 UserAgent 以及超时设置, 可以尽量复用 TCP/TLS 连接, 不影响宿主应用的网络设置.
+ */
+@SuppressWarnings("unused")
+public class PlayerNetwork {
+    private static final String TAG = PlayerNetwork.class.getSimpleName();
+    public static final String APP_NAME = "NSMPlayer";
+
+    public static final int DEFAULT_MAX_CONNECTIONS = 8;
+    // 空闲连接保持的时长
+    private static final long KEEP_ALIVE_MINUTES = 5;
+
+    private static Context ctx;
+    private static String sUserAgent;
+    private static PersistentBandwidthMeter sBandwidthMeter;
+    private static OkHttpClient sHttpClient;
+    private static HttpDataSource.Factory sHttpDataSourceFactory;
+    private static DataSource.Factory sDataSourceFactory;
+
+    public static void init(@NonNull Context context, @NonNull Looper looper) {
+        init(context, looper, null, DefaultHttpDataSource.DEFAULT_CONNECT_TIMEOUT_MILLIS,
+                DefaultHttpDataSource.DEFAULT_READ_TIMEOUT_MILLIS, DEFAULT_MAX_CONNECTIONS);
+    }
+
+    /**
+     * @param looper 带宽估算回调所在的线程
+     * @param userAgent 为空时使用默认的 UserAgent
+     * @param maxConnections 连接池保持的空闲 keep-alive 连接数
+     */
+    public static synchronized void init(@NonNull Context context, @NonNull Looper looper, @Nullable String userAgent,
+                                         int connectTimeoutMillis, int readTimeoutMillis, int maxConnections) {
+        if (ctx != null) {
+            PlayerLog.d(TAG, "PlayerNetwork already init.");
+            return;
+        }
+        ctx = context.getApplicationContext();
+        sUserAgent = userAgent == null ? Util.getUserAgent(ctx, APP_NAME) : userAgent;
+        sBandwidthMeter = new PersistentBandwidthMeter(ctx, new Handler(looper));
+        // 使用自己的连接池, 不修改 HttpURLConnection 进程级别的 keep-alive 设置.
+        sHttpClient = new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(maxConnections, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+                .connectTimeout(connectTimeoutMillis, TimeUnit.MILLISECONDS)
+                .readTimeout(readTimeoutMillis, TimeUnit.MILLISECONDS)
+                .build();
+        sHttpDataSourceFactory = new OkHttpDataSourceFactory(sHttpClient, sUserAgent, sBandwidthMeter);
+        sDataSourceFactory = new DefaultDataSourceFactory(ctx, sBandwidthMeter, sHttpDataSourceFactory);
+    }
+
+    private static void checkInitialization() {
+        if (ctx == null) throw new IllegalStateException("PlayerNetwork not initialized");
+    }
+
+    public static @NonNull String getUserAgent() {
+        checkInitialization();
+        return sUserAgent;
+    }
+
+    public static @NonNull BandwidthMeter getBandwidthMeter() {
+        checkInitialization();
+        return sBandwidthMeter;
+    }
+
+    /**
+     * @param headers 该视频需要额外携带的请求头, 为空时直接返回共享的 Factory.
+     * @return 同时支持本地文件 以及 网络地址的 DataSource.Factory
+     */
+    public static @NonNull DataSource.Factory buildDataSourceFactory(@Nullable final Map<String, String> headers) {
+        checkInitialization();
+        if (headers == null || headers.isEmpty()) {
+            return sDataSourceFactory;
+        }
+        return new DataSource.Factory() {
+            @Override
+            public DataSource createDataSource() {
+                HttpDataSource httpDataSource = sHttpDataSourceFactory.createDataSource();
+                for (Map.Entry<String, String> header : headers.entrySet()) {
+                    httpDataSource.setRequestProperty(header.getKey(), header.getValue());
+                }
+                return new DefaultDataSource(ctx, sBandwidthMeter, httpDataSource);
+            }
+        };
+    }
+}
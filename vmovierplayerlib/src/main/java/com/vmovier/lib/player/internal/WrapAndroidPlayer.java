@@ -6,11 +6,13 @@ import android.media.AudioManager;
 import android.media.MediaPlayer;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Looper;
 import android.text.TextUtils;
 import android.util.Log;
 import android.view.Surface;
 import android.view.SurfaceHolder;
 
+import com.vmovier.lib.player.BufferPolicy;
 import com.vmovier.lib.player.MediaError;
 import com.vmovier.lib.utils.PlayerLog;
 
@@ -25,7 +27,7 @@ class WrapAndroidPlayer extends AbstractPlayer {
     private final AndroidMediaPlayerListenerHolder mInternalListenerAdapter;
     private String mDataSource;
 
-    private boolean mIsReleased;
+    private volatile boolean mIsReleased;
     private int mBufferedPercentage = 0;
 
     private static int PLAYER_ID = 0;
@@ -181,11 +183,38 @@ class WrapAndroidPlayer extends AbstractPlayer {
 
     @Override
     public void seekTo(long msec) throws IllegalStateException {
+        seekTo(msec, SEEK_MODE_DEFAULT);
+    }
+
+    @Override
+    public void seekTo(long msec, int seekMode) throws IllegalStateException {
         long duration = getDuration();
         if (((msec + 3000) >= duration) && duration != 0) {
             msec = duration - 2000;
         }
-        mInternalMediaPlayer.seekTo((int) msec);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && seekMode != SEEK_MODE_DEFAULT) {
+            mInternalMediaPlayer.seekTo(msec, toMediaPlayerSeekMode(seekMode));
+        } else {
+            // 8.0 以下只有 seekTo(int), 实际效果由系统决定, 大部分机型是之前的关键帧.
+            // 默认模式也走这里, 保持原来的行为, 不会每次都解码到精确的那一帧.
+            mInternalMediaPlayer.seekTo((int) msec);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.O)
+    private static int toMediaPlayerSeekMode(int seekMode) {
+        switch (seekMode) {
+            case SEEK_MODE_CLOSEST_SYNC:
+                return MediaPlayer.SEEK_CLOSEST_SYNC;
+            case SEEK_MODE_PREVIOUS_SYNC:
+                return MediaPlayer.SEEK_PREVIOUS_SYNC;
+            case SEEK_MODE_NEXT_SYNC:
+                return MediaPlayer.SEEK_NEXT_SYNC;
+            case SEEK_MODE_EXACT:
+                return MediaPlayer.SEEK_CLOSEST;
+            default:
+                return MediaPlayer.SEEK_PREVIOUS_SYNC;
+        }
     }
 
     @Override
@@ -240,6 +269,36 @@ class WrapAndroidPlayer extends AbstractPlayer {
         return mInternalMediaPlayer.isLooping();
     }
 
+    @Override
+    public void setAudioOnly(boolean audioOnly) {
+        // MediaPlayer 无法关闭视频轨道, 没有 Surface 时不渲染画面, 这里什么都不做.
+    }
+
+    @Override
+    public void setMaxVideoSize(int maxWidth, int maxHeight) {
+        // MediaPlayer 无法选择视频轨道, 什么都不做.
+    }
+
+    @Override
+    public void setBufferPolicy(BufferPolicy policy) {
+        // MediaPlayer 的缓冲由系统控制, 什么都不做.
+    }
+
+    @Override
+    public void setPriority(int priority) {
+        // MediaPlayer 不参与缓冲预算, 什么都不做.
+    }
+
+    @Override
+    public void trimBuffers() {
+        // MediaPlayer 无法丢弃缓冲, 什么都不做.
+    }
+
+    @Override
+    public long getAllocatedBytes() {
+        return 0;
+    }
+
     @Override
     public void setVolume(float volume) {
         mInternalMediaPlayer.setVolume(volume, volume);
@@ -250,6 +309,14 @@ class WrapAndroidPlayer extends AbstractPlayer {
         mInternalMediaPlayer.setAudioStreamType(streamtype);
     }
 
+    /**
+     * MediaPlayer 的 release 可以在任意线程调用.
+     */
+    @Override
+    public Looper getReleaseLooper() {
+        return null;
+    }
+
     @Override
     public int getPlayerType() {
         return PLAYERTYPE_ANDROIDMEDIA;
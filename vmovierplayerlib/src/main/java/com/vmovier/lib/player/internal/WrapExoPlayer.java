@@ -3,6 +3,8 @@ package com.vmovier.lib.player.internal;
 import android.content.Context;
 import android.net.Uri;
 import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.text.TextUtils;
 import android.view.Surface;
@@ -13,9 +15,11 @@ import com.google.android.exoplayer2.ExoPlaybackException;
 import com.google.android.exoplayer2.ExoPlayer;
 import com.google.android.exoplayer2.Player;
 import com.google.android.exoplayer2.SimpleExoPlayer;
+import com.google.android.exoplayer2.Timeline;
 import com.google.android.exoplayer2.extractor.DefaultExtractorsFactory;
 import com.google.android.exoplayer2.mediacodec.MediaCodecRenderer;
 import com.google.android.exoplayer2.mediacodec.MediaCodecUtil;
+import com.google.android.exoplayer2.source.DynamicConcatenatingMediaSource;
 import com.google.android.exoplayer2.source.ExtractorMediaSource;
 import com.google.android.exoplayer2.source.MediaSource;
 import com.google.android.exoplayer2.source.dash.DashMediaSource;
@@ -27,25 +31,23 @@ import com.google.android.exoplayer2.trackselection.AdaptiveTrackSelection;
 import com.google.android.exoplayer2.trackselection.DefaultTrackSelector;
 import com.google.android.exoplayer2.trackselection.TrackSelection;
 import com.google.android.exoplayer2.upstream.DataSource;
-import com.google.android.exoplayer2.upstream.DefaultBandwidthMeter;
-import com.google.android.exoplayer2.upstream.DefaultDataSourceFactory;
-import com.google.android.exoplayer2.upstream.DefaultHttpDataSourceFactory;
-import com.google.android.exoplayer2.upstream.HttpDataSource;
 import com.google.android.exoplayer2.util.Util;
+import com.vmovier.lib.player.BufferPolicy;
 import com.vmovier.lib.player.MediaError;
+import com.vmovier.lib.player.VideoViewDataSource;
+import com.vmovier.lib.player.cache.MediaCache;
 import com.vmovier.lib.utils.PlayerLog;
 
 import java.io.FileDescriptor;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 
-class WrapExoPlayer extends AbstractPlayer {
+class WrapExoPlayer extends AbstractPlayer implements IInternalPlaylistPlayer {
     private static final String TAG = WrapExoPlayer.class.getSimpleName();
 
-    public static final String APP_NAME = "NSMPlayer";
-
-    private String userAgent;
     private Context mAppContext;
     private SimpleExoPlayer mInternalMediaPlayer;
     private ExoEventListener mEventListener;
@@ -57,18 +59,31 @@ class WrapExoPlayer extends AbstractPlayer {
     private int mVideoSarNum = 1;
     private int mVideoSarDen = 1;
     private Handler mHandler;
-    private DataSource.Factory mediaDataSourceFactory;
-    private static final DefaultBandwidthMeter BANDWIDTH_METER = new DefaultBandwidthMeter();
     private int mInternalPlayerState = com.google.android.exoplayer2.ExoPlayer.STATE_IDLE;
     private static int PLAYER_ID = 0;
     private final int mId;
     private Surface mSurface;
+    // 播放列表, 不为空时 prepare 的是拼接后的 MediaSource.
+    private List<VideoViewDataSource> mPlaylist;
+    private int mPlaylistStartIndex;
+    private DynamicConcatenatingMediaSource mConcatSource;
+    private int mPlaylistIndex;
+    private boolean isLooping = false;
+    private boolean isAudioOnly = false;
+    private int mMaxVideoWidth = Integer.MAX_VALUE;
+    private int mMaxVideoHeight = Integer.MAX_VALUE;
+    private DefaultTrackSelector mTrackSelector;
+    private BufferPolicy mBufferPolicy = BufferPolicy.DEFAULT;
+    private int mPriority = PRIORITY_FOCUSED;
+    private BudgetLoadControl mLoadControl;
+    private MediaSource mMediaSource;
+    // 热切换 reset 之后, 上一个地址已经发出还没有回调的事件都排在 stop 产生的 STATE_IDLE 之前,
+    // 收到 STATE_IDLE 之前的回调都属于上一个地址, 直接丢弃.
+    private boolean isSkippingStaleEvents = false;
 
     WrapExoPlayer(Context context) {
         mAppContext = context.getApplicationContext();
-        userAgent = Util.getUserAgent(mAppContext, APP_NAME);
         mHandler = new Handler();
-        mediaDataSourceFactory = buildDataSourceFactory(true);
 
         PLAYER_ID ++;
         mId = PLAYER_ID;
@@ -101,12 +116,14 @@ class WrapExoPlayer extends AbstractPlayer {
     @Override
     public void setDataSource(Context context, Uri uri) throws IOException, IllegalArgumentException, SecurityException, IllegalStateException {
         this.mUri = uri;
+        this.mPlaylist = null;
     }
 
     @Override
     public void setDataSource(Context context, Uri uri, Map<String, String> headers) throws IOException, IllegalArgumentException, SecurityException, IllegalStateException {
         this.mUri = uri;
         this.mHeaders = headers;
+        this.mPlaylist = null;
     }
 
     @Override
@@ -117,6 +134,54 @@ class WrapExoPlayer extends AbstractPlayer {
     @Override
     public void setDataSource(String path) throws IOException, IllegalArgumentException, SecurityException, IllegalStateException {
         this.mUri = TextUtils.isEmpty(path) ? Uri.EMPTY : Uri.parse(path);
+        this.mPlaylist = null;
+    }
+
+    @Override
+    public void setPlaylist(@NonNull List<VideoViewDataSource> items, int startIndex) {
+        this.mPlaylist = new ArrayList<>(items);
+        this.mPlaylistStartIndex = startIndex;
+        this.mUri = null;
+        this.mHeaders = null;
+    }
+
+    @Override
+    public void addPlaylistItem(int index, @NonNull VideoViewDataSource item) {
+        if (mConcatSource != null) {
+            mPlaylist.add(index, item);
+            mConcatSource.addMediaSource(index, buildMediaSource(item.uri, item.headers));
+        }
+    }
+
+    @Override
+    public void removePlaylistItem(int index) {
+        if (mConcatSource != null) {
+            mPlaylist.remove(index);
+            mConcatSource.removeMediaSource(index);
+        }
+    }
+
+    @Override
+    public void movePlaylistItem(int fromIndex, int toIndex) {
+        if (mConcatSource != null) {
+            mPlaylist.add(toIndex, mPlaylist.remove(fromIndex));
+            mConcatSource.moveMediaSource(fromIndex, toIndex);
+        }
+    }
+
+    @Override
+    public void skipToPlaylistItem(int index) {
+        if (mInternalMediaPlayer != null && mConcatSource != null) {
+            mInternalMediaPlayer.seekToDefaultPosition(index);
+        }
+    }
+
+    @Override
+    public @Nullable VideoViewDataSource getCurrentPlaylistItem() {
+        if (mConcatSource == null || mPlaylistIndex < 0 || mPlaylistIndex >= mPlaylist.size()) {
+            return null;
+        }
+        return mPlaylist.get(mPlaylistIndex);
     }
 
     @Override
@@ -126,20 +191,46 @@ class WrapExoPlayer extends AbstractPlayer {
 
     @Override
     public void prepareAsync() throws IllegalStateException {
-        TrackSelection.Factory videoTrackSelectionFactory =
-                new AdaptiveTrackSelection.Factory(BANDWIDTH_METER);
-        DefaultTrackSelector trackSelector = new DefaultTrackSelector(videoTrackSelectionFactory);
-
-        mInternalMediaPlayer = InternalExoPlayer.newInstance(mAppContext, trackSelector);
-
-        mEventListener = new ExoEventListener();
-        mInternalMediaPlayer.addListener(mEventListener);
-        mVideoListener = new ExoVideoListener();
-        mInternalMediaPlayer.addVideoListener(mVideoListener);
+        if (mInternalMediaPlayer == null) {
+            TrackSelection.Factory videoTrackSelectionFactory =
+                    new AdaptiveTrackSelection.Factory(PlayerNetwork.getBandwidthMeter());
+            mTrackSelector = new DefaultTrackSelector(videoTrackSelectionFactory);
+
+            mTrackSelector.setParameters(mTrackSelector.getParameters()
+                    .withMaxVideoSize(mMaxVideoWidth, mMaxVideoHeight));
+            mLoadControl = new BudgetLoadControl(mBufferPolicy, mPriority);
+            mInternalMediaPlayer = InternalExoPlayer.newInstance(mAppContext, mTrackSelector, mLoadControl);
+
+            isSkippingStaleEvents = false;
+            mEventListener = new ExoEventListener();
+            mInternalMediaPlayer.addListener(mEventListener);
+            mVideoListener = new ExoVideoListener();
+            mInternalMediaPlayer.addVideoListener(mVideoListener);
+            mInternalMediaPlayer.setRepeatMode(getRepeatMode());
+            updateVideoRenderers();
+        } else {
+            // 热切换, 复用已经存在的 ExoPlayer, 保留解码器以及加载线程.
+            PlayerLog.d(TAG, "prepareAsync reuse ExoPlayer, Player Id is " + mId);
+        }
 
-        MediaSource mediaSource = buildMediaSource(mUri, mHeaders);
+        MediaSource mediaSource;
+        if (mPlaylist != null) {
+            // 列表中的地址拼接在一起, ExoPlayer 会提前缓冲下一个地址, 切换时不需要重新 prepare.
+            mConcatSource = buildConcatSource();
+            mediaSource = mConcatSource;
+        } else {
+            mConcatSource = null;
+            mediaSource = buildMediaSource(mUri, mHeaders);
+        }
+        mMediaSource = mediaSource;
+        mLoadControl.setTrimmed(false);
         mInternalMediaPlayer.setVideoSurface(mSurface);
         mInternalMediaPlayer.prepare(mediaSource);
+        mPlaylistIndex = 0;
+        if (mConcatSource != null && mPlaylistStartIndex > 0) {
+            mPlaylistIndex = mPlaylistStartIndex;
+            mInternalMediaPlayer.seekToDefaultPosition(mPlaylistStartIndex);
+        }
         notifyOnPrepared();
     }
 
@@ -153,6 +244,10 @@ class WrapExoPlayer extends AbstractPlayer {
             mEventListener = null;
             mVideoListener = null;
         }
+        mTrackSelector = null;
+        mLoadControl = null;
+        mMediaSource = null;
+        mConcatSource = null;
     }
 
     @Override
@@ -166,6 +261,7 @@ class WrapExoPlayer extends AbstractPlayer {
         if (mInternalPlayerState == com.google.android.exoplayer2.ExoPlayer.STATE_ENDED) {
             mInternalMediaPlayer.seekTo(0);
         }
+        mLoadControl.setTrimmed(false);
         mInternalMediaPlayer.setPlayWhenReady(true);
     }
 
@@ -224,6 +320,14 @@ class WrapExoPlayer extends AbstractPlayer {
         }
     }
 
+    /**
+     * 当前版本的 ExoPlayer 没有 SeekParameters, 所有模式都是精确 seek.
+     */
+    @Override
+    public void seekTo(long msec, int seekMode) throws IllegalStateException {
+        seekTo(msec);
+    }
+
     @Override
     public long getCurrentPosition() {
         return mInternalMediaPlayer == null ? 0 : mInternalMediaPlayer.getCurrentPosition();
@@ -237,7 +341,30 @@ class WrapExoPlayer extends AbstractPlayer {
 
     @Override
     public void reset() {
-        // TODO.
+        // 只停止加载并清空状态, 不释放 ExoPlayer. 之后可以重新 setDataSource 以及 prepareAsync.
+        if (mInternalMediaPlayer != null) {
+            // 已经回调过 STATE_IDLE 时 (比如出错之后), stop 不会再产生 STATE_IDLE, 不能等待它.
+            // 否则 STATE_IDLE 一定会回调: 要么已经在队列中, 要么由 stop 产生.
+            if (mInternalMediaPlayer.getPlaybackState() != Player.STATE_IDLE) {
+                isSkippingStaleEvents = true;
+            }
+            mInternalMediaPlayer.setPlayWhenReady(false);
+            mInternalMediaPlayer.stop();
+        }
+        if (mEventListener != null) {
+            mEventListener.isBuffering = false;
+        }
+        mInternalPlayerState = Player.STATE_IDLE;
+        mUri = null;
+        mHeaders = null;
+        mPlaylist = null;
+        mMediaSource = null;
+        mConcatSource = null;
+        mPlaylistIndex = 0;
+        mVideoWidth = 0;
+        mVideoHeight = 0;
+        mVideoSarNum = 1;
+        mVideoSarDen = 1;
     }
 
     @Override
@@ -266,13 +393,110 @@ class WrapExoPlayer extends AbstractPlayer {
         return mVideoSarDen;
     }
 
+    /**
+     * 使用 ExoPlayer 的 REPEAT_MODE_ONE 循环当前地址. 播放到结尾之前就会开始缓冲开头,
+     * 循环时不会进入 STATE_ENDED, 也不需要 seek, 衔接处没有缓冲.
+     */
     @Override
     public void setLooping(boolean looping) {
+        isLooping = looping;
+        if (mInternalMediaPlayer != null) {
+            mInternalMediaPlayer.setRepeatMode(getRepeatMode());
+        }
     }
 
     @Override
     public boolean isLooping() {
-        return false;
+        return isLooping;
+    }
+
+    private int getRepeatMode() {
+        return isLooping ? Player.REPEAT_MODE_ONE : Player.REPEAT_MODE_OFF;
+    }
+
+    @Override
+    public void setAudioOnly(boolean audioOnly) {
+        if (isAudioOnly != audioOnly) {
+            isAudioOnly = audioOnly;
+            updateVideoRenderers();
+        }
+    }
+
+    @Override
+    public void setBufferPolicy(BufferPolicy policy) {
+        mBufferPolicy = policy == null ? BufferPolicy.DEFAULT : policy;
+        if (mLoadControl != null) {
+            mLoadControl.setMaxBufferBytes(mBufferPolicy.maxBufferBytes);
+        }
+    }
+
+    @Override
+    public void setPriority(int priority) {
+        mPriority = priority;
+        if (mLoadControl != null) {
+            mLoadControl.setPriority(priority);
+        }
+    }
+
+    @Override
+    public void trimBuffers() {
+        if (mInternalMediaPlayer == null || mMediaSource == null
+                || mInternalMediaPlayer.getPlayWhenReady()
+                || mInternalPlayerState == Player.STATE_IDLE || mInternalPlayerState == Player.STATE_ENDED) {
+            return;
+        }
+        PlayerLog.d(TAG, "trimBuffers , Player Id is " + mId);
+        // stop 会释放缓冲以及解码器, 但是保留播放位置, 重新 prepare 后从原来的位置开始缓冲.
+        mLoadControl.setTrimmed(true);
+        mInternalMediaPlayer.stop();
+        if (mConcatSource != null) {
+            // DynamicConcatenatingMediaSource 不支持重新 prepare, 按照当前的列表重新拼接, 地址的位置不变.
+            mConcatSource = buildConcatSource();
+            mMediaSource = mConcatSource;
+        }
+        mInternalMediaPlayer.prepare(mMediaSource, false, false);
+    }
+
+    @Override
+    public long getAllocatedBytes() {
+        return mLoadControl == null ? 0 : mLoadControl.getAllocatedBytes();
+    }
+
+    @Override
+    public void setMaxVideoSize(int maxWidth, int maxHeight) {
+        if (mMaxVideoWidth == maxWidth && mMaxVideoHeight == maxHeight) {
+            return;
+        }
+        mMaxVideoWidth = maxWidth;
+        mMaxVideoHeight = maxHeight;
+        if (mTrackSelector != null) {
+            // 修改参数后 ExoPlayer 会重新选择轨道, 只影响之后加载的分片.
+            mTrackSelector.setParameters(mTrackSelector.getParameters().withMaxVideoSize(maxWidth, maxHeight));
+        }
+    }
+
+    /**
+     * 禁用视频 Renderer 之后 ExoPlayer 会重新选择轨道, 分离音视频的 HLS/DASH 不再下载视频分片, 视频解码器也会被释放.
+     * 重新启用时从当前位置恢复画面, 不需要重新 prepare.
+     */
+    private void updateVideoRenderers() {
+        if (mInternalMediaPlayer == null || mTrackSelector == null) {
+            return;
+        }
+        for (int i = 0; i < mInternalMediaPlayer.getRendererCount(); i++) {
+            if (mInternalMediaPlayer.getRendererType(i) == C.TRACK_TYPE_VIDEO) {
+                mTrackSelector.setRendererDisabled(i, isAudioOnly);
+            }
+        }
+    }
+
+    /**
+     * ExoPlayer 只能在创建它的线程中使用, 也就是状态机线程. release 会阻塞该线程直到 ExoPlayer 的播放线程退出,
+     * 同一个状态机 Looper 上的其它播放器也要等待, 见 {@link InternalPlayerReaper}.
+     */
+    @Override
+    public Looper getReleaseLooper() {
+        return mHandler.getLooper();
     }
 
     @Override
@@ -299,6 +523,10 @@ class WrapExoPlayer extends AbstractPlayer {
          */
         @Override
         public void onVideoSizeChanged(int width, int height, int unappliedRotationDegrees, float pixelWidthHeightRatio) {
+            if (isSkippingStaleEvents) {
+                PlayerLog.d(TAG, "skip stale onVideoSizeChanged");
+                return;
+            }
             mVideoHeight = height;
             mVideoWidth = width;
             if (height == 0 || width == 0) {
@@ -327,7 +555,11 @@ class WrapExoPlayer extends AbstractPlayer {
          */
         @Override
         public void onRenderedFirstFrame() {
+            if (isSkippingStaleEvents) {
+                return;
+            }
             PlayerLog.d(TAG, "onRenderedFirstFrame");
+            notifyOnInfo(IInternalPlayer.MEDIA_INFO_VIDEO_RENDERING_START, 0);
         }
     }
 
@@ -347,6 +579,14 @@ class WrapExoPlayer extends AbstractPlayer {
                 PlayerLog.d(TAG, "onPlayerStateChanged mInternalMediaPlayer == null");
                 return;
             }
+            if (isSkippingStaleEvents) {
+                if (playbackState == Player.STATE_IDLE) {
+                    // 上一个地址的事件已经全部回调完了.
+                    isSkippingStaleEvents = false;
+                }
+                PlayerLog.d(TAG, "skip stale onPlayerStateChanged " + playbackState);
+                return;
+            }
             mInternalPlayerState = playbackState;
             if (isBuffering) {
                 switch (playbackState) {
@@ -385,6 +625,10 @@ class WrapExoPlayer extends AbstractPlayer {
          */
         @Override
         public void onPlayerError(ExoPlaybackException e) {
+            if (isSkippingStaleEvents) {
+                PlayerLog.d(TAG, "skip stale onPlayerError " + e);
+                return;
+            }
             MediaError error = null;
             if (e == null) {
                 error = new MediaError(MediaError.ERROR_UNKNOWN);
@@ -416,67 +660,67 @@ class WrapExoPlayer extends AbstractPlayer {
             notifyOnError(error);
             PlayerLog.d(TAG, "onPlayerError   " + error.toString());
         }
+
+        @Override
+        public void onPositionDiscontinuity(int reason) {
+            checkPlaylistIndex();
+        }
+
+        @Override
+        public void onTimelineChanged(Timeline timeline, Object manifest) {
+            // 列表增删以后 当前地址的位置也可能发生变化.
+            checkPlaylistIndex();
+        }
+
+        private void checkPlaylistIndex() {
+            if (mInternalMediaPlayer == null || mConcatSource == null || isSkippingStaleEvents) {
+                return;
+            }
+            int index = mInternalMediaPlayer.getCurrentWindowIndex();
+            if (index != mPlaylistIndex) {
+                PlayerLog.d(TAG, "playlist index changed " + mPlaylistIndex + " -> " + index);
+                mPlaylistIndex = index;
+                notifyOnInfo(IInternalPlayer.MEDIA_INFO_PLAYLIST_INDEX_CHANGED, index);
+            }
+        }
+    }
+
+    private DynamicConcatenatingMediaSource buildConcatSource() {
+        List<MediaSource> mediaSources = new ArrayList<>(mPlaylist.size());
+        for (VideoViewDataSource item : mPlaylist) {
+            mediaSources.add(buildMediaSource(item.uri, item.headers));
+        }
+        DynamicConcatenatingMediaSource concatSource = new DynamicConcatenatingMediaSource();
+        concatSource.addMediaSources(mediaSources);
+        return concatSource;
     }
 
     private MediaSource buildMediaSource(Uri uri, @Nullable Map<String, String> headers) {
+        // 所有播放器共享同一个网络层, 需要额外请求头的视频 在共享的 HttpDataSource 上设置请求头.
+        DataSource.Factory dataSourceFactory = PlayerNetwork.buildDataSourceFactory(headers);
+        // 如果开启了磁盘缓存, 媒体数据优先从缓存中读取. 索引文件不会被缓存.
+        DataSource.Factory cacheDataSourceFactory = MediaCache.buildDataSourceFactory(dataSourceFactory);
         if (uri.getLastPathSegment() == null) {
             // 防止传入空URI 导致getLastPathSegment 为空 造成空指针崩溃
-            return new ExtractorMediaSource(uri, mediaDataSourceFactory, new DefaultExtractorsFactory(),
+            return new ExtractorMediaSource(uri, cacheDataSourceFactory, new DefaultExtractorsFactory(),
                     mHandler, null);
         }
         int type = Util.inferContentType(uri.getLastPathSegment());
         switch (type) {
             case C.TYPE_SS:
-                return new SsMediaSource(uri, buildDataSourceFactory(false),
-                        new DefaultSsChunkSource.Factory(mediaDataSourceFactory), mHandler, null);
+                return new SsMediaSource(uri, dataSourceFactory,
+                        new DefaultSsChunkSource.Factory(cacheDataSourceFactory), mHandler, null);
             case C.TYPE_DASH:
-                return new DashMediaSource(uri, buildDataSourceFactory(false),
-                        new DefaultDashChunkSource.Factory(mediaDataSourceFactory), mHandler, null);
+                return new DashMediaSource(uri, dataSourceFactory,
+                        new DefaultDashChunkSource.Factory(cacheDataSourceFactory), mHandler, null);
             case C.TYPE_HLS:
-                if (headers == null) {
-                    return new HlsMediaSource(uri, mediaDataSourceFactory, mHandler, null);
-                } else {
-                    HttpDataSource.Factory headersFactory = buildHttpDataSourceFactory(true);
-                    headersFactory.getDefaultRequestProperties().set(mHeaders);
-                    return new HlsMediaSource(uri, headersFactory, mHandler, null);
-                }
+                return new HlsMediaSource(uri, cacheDataSourceFactory, mHandler, null);
             case C.TYPE_OTHER:
-                if (headers == null) {
-                    return new ExtractorMediaSource(uri, mediaDataSourceFactory, new DefaultExtractorsFactory(),
-                            mHandler, null);
-                } else {
-                    HttpDataSource.Factory headersFactory = buildHttpDataSourceFactory(true);
-                    headersFactory.getDefaultRequestProperties().set(headers);
-                    return new ExtractorMediaSource(uri, headersFactory, new DefaultExtractorsFactory(),
-                            mHandler, null);
-                }
+                return new ExtractorMediaSource(uri, cacheDataSourceFactory, new DefaultExtractorsFactory(),
+                        mHandler, null);
             default: {
                 throw new IllegalStateException("Unsupported type: " + type);
             }
         }
     }
-
-    /**
-     * Returns a new DataSource factory.
-     *
-     * @param useBandwidthMeter Whether to set {@link #BANDWIDTH_METER} as a listener to the new
-     *     DataSource factory.
-     * @return A new DataSource factory.
-     */
-    private DataSource.Factory buildDataSourceFactory(boolean useBandwidthMeter) {
-        // Produces DataSource instances through which media data is loaded.
-        return new DefaultDataSourceFactory(mAppContext, userAgent, useBandwidthMeter ? BANDWIDTH_METER : null);
-    }
-
-    /**
-     * Returns a new HttpDataSource factory.
-     *
-     * @param useBandwidthMeter Whether to set {@link #BANDWIDTH_METER} as a listener to the new
-     *     DataSource factory.
-     * @return A new HttpDataSource factory.
-     */
-    private HttpDataSource.Factory buildHttpDataSourceFactory(boolean useBandwidthMeter) {
-        return new DefaultHttpDataSourceFactory(userAgent, useBandwidthMeter ? BANDWIDTH_METER : null);
-    }
-
 }
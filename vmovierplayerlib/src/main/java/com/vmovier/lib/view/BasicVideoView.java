@@ -63,6 +63,9 @@ public class BasicVideoView extends FrameLayout {
     protected int mScreenMode = PLAYERSCREENMODE_PORTRAIT_INSET;
     protected StringBuilder mFormatBuilder;
     protected Formatter mFormatter;
+    // 是否根据 View 的大小限制视频分辨率
+    protected boolean isCapVideoSize = true;
+    private final VideoSizeCap mVideoSizeCap = new VideoSizeCap();
 
     @Retention(RetentionPolicy.SOURCE)
     @IntDef({PLAYERSCREENMODE_PORTRAIT_INSET, PLAYERSCREENMODE_PORTRAIT_FULLSCREEN, PLAYERSCREENMODE_LANDSCAPE_FULLSCREEN})
@@ -436,6 +439,8 @@ public class BasicVideoView extends FrameLayout {
     public void setScreenMode(@PlayerScreenMode int screenMode) {
         if (mScreenMode == screenMode) return;
         mScreenMode = screenMode;
+        // 全屏时不等重新布局, 立即放开分辨率上限.
+        updateMaxVideoSize();
 
         if (mControlView == null) return;
         mControlView.setScreenMode(screenMode);
@@ -508,6 +513,9 @@ public class BasicVideoView extends FrameLayout {
             bindSurfaceHolder(mPlayer, mSurfaceHolder);
             mPlayer.addVideoSizeListener(mVideoListener);
             mPlayer.addVideoStateListener(mVideoListener);
+            if (isCapVideoSize) {
+                mPlayer.setMaxVideoSize(mVideoSizeCap.getMaxWidth(), mVideoSizeCap.getMaxHeight());
+            }
             if (mPlayer.isCurrentState(IPlayer.STATE_MASK_PREPARED)) {
                 hidePosterView();
             }
@@ -595,6 +603,46 @@ public class BasicVideoView extends FrameLayout {
         }
     }
 
+    /**
+     * @param capVideoSize 是否根据 View 的像素大小限制视频分辨率, 默认开启. 关闭后不再限制.
+     */
+    public void setCapVideoSize(boolean capVideoSize) {
+        if (this.isCapVideoSize == capVideoSize) return;
+        this.isCapVideoSize = capVideoSize;
+        mVideoSizeCap.reset();
+        if (mPlayer != null && !capVideoSize) {
+            mPlayer.setMaxVideoSize(IPlayer.VIDEO_SIZE_UNLIMITED, IPlayer.VIDEO_SIZE_UNLIMITED);
+        }
+        updateMaxVideoSize();
+    }
+
+    public boolean isCapVideoSize() {
+        return isCapVideoSize;
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        updateMaxVideoSize();
+    }
+
+    /**
+     * 根据当前大小更新视频分辨率上限, 全屏时不限制. 上限按档位变化, 不会随着每次布局改变.
+     */
+    protected void updateMaxVideoSize() {
+        if (!isCapVideoSize) return;
+        boolean changed;
+        if (mScreenMode == PLAYERSCREENMODE_PORTRAIT_INSET) {
+            changed = mVideoSizeCap.update(getWidth(), getHeight());
+        } else {
+            changed = mVideoSizeCap.clear();
+        }
+        if (changed && mPlayer != null) {
+            PlayerLog.d(TAG, "updateMaxVideoSize " + mVideoSizeCap.getMaxWidth() + " x " + mVideoSizeCap.getMaxHeight());
+            mPlayer.setMaxVideoSize(mVideoSizeCap.getMaxWidth(), mVideoSizeCap.getMaxHeight());
+        }
+    }
+
     @Override
     protected void onAttachedToWindow() {
         super.onAttachedToWindow();
@@ -0,0 +1,8 @@
+package com.vmovier.lib.view;
+
+/**
+ * 默认情况下, 主线程两次分发之间发生的多次状态变化会按顺序逐个回调 {@link #onStateChanged(int, int)}.
+ * 实现该接口的 Listener 在同一批中只会收到最后一次状态变化, 适合只关心当前状态的 UI.
+ */
+public interface ICoalescedVideoStateListener extends IVideoStateListener {
+}
@@ -0,0 +1,16 @@
+package com.vmovier.lib.view;
+
+import android.support.annotation.NonNull;
+
+import com.vmovier.lib.player.PlaybackQualityReport;
+
+/**
+ * Player QoE Report Listener.
+ */
+public interface IPlaybackReportListener {
+    /**
+     * 一次播放结束 (stopPlayback 或者 更换了播放地址) 以后, 在主线程回调该方法
+     * @param report 本次播放的卡顿统计
+     */
+    void onPlaybackReport(@NonNull PlaybackQualityReport report);
+}
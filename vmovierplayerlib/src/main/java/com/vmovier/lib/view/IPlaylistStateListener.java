@@ -0,0 +1,19 @@
+package com.vmovier.lib.view;
+
+import android.support.annotation.Nullable;
+
+import com.vmovier.lib.player.VideoViewDataSource;
+
+/**
+ * 通过 {@link com.vmovier.lib.player.IPlayer#addVideoStateListener(IVideoStateListener)} 注册,
+ * 额外接收播放列表当前位置的变化.
+ */
+public interface IPlaylistStateListener extends IVideoStateListener {
+    /**
+     * 播放列表切换到了另一个地址 (自动播放下一个, 或者调用了 skipToPlaylistItem), 在主线程回调
+     * @param oldIndex 之前的位置
+     * @param newIndex 当前的位置
+     * @param dataSource 当前播放的地址
+     */
+    void onPlaylistIndexChanged(int oldIndex, int newIndex, @Nullable VideoViewDataSource dataSource);
+}
@@ -3,6 +3,7 @@ package com.vmovier.lib.view;
 import android.content.Context;
 import android.content.res.TypedArray;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.v4.view.ViewCompat;
 import android.util.AttributeSet;
 import android.util.DisplayMetrics;
@@ -13,17 +14,14 @@ import android.widget.SeekBar;
 import android.widget.TextView;
 
 import com.vmovier.lib.player.IPlayer;
+import com.vmovier.lib.view.preview.ISeekPreviewProvider;
+import com.vmovier.lib.view.preview.SeekPreviewHelper;
 import com.vmovier.player.R;
 
-import java.util.Formatter;
-import java.util.Locale;
-
 
 public class PlayerControlView extends FrameLayout implements IPlayerControlView {
     // 显示时长
     public static final int DEFAULT_SHOW_TIMEOUT_MS = 2000;
-    // 更新Progress的频率
-    private static final int DEFAULT_UPDATE_PROGRESS_MS = 1000;
     // Progressbar的 max
     private static final int PROGRESS_BAR_MAX = 1000;
 
@@ -46,9 +44,13 @@ public class PlayerControlView extends FrameLayout implements IPlayerControlView
     private IPlayer mPlayer;
     private boolean isAttachedToWindow;
     private final ComponentListener componentListener;
-    private final StringBuilder mFormatBuilder;
-    private final Formatter mFormatter;
+    private final ProgressUpdateScheduler mProgressScheduler = new ProgressUpdateScheduler();
+    private final TimeTextCache mPositionTextCache = new TimeTextCache();
+    private final TimeTextCache mDurationTextCache = new TimeTextCache();
     private boolean dragging;
+    private ISeekPreviewProvider mSeekPreviewProvider;
+    private SeekPreviewHelper mSeekPreviewHelper;
+    private final ScrubSeekController mScrubSeekController = new ScrubSeekController();
     /** 横屏控制view */
     private final View mLandscapeView;
     /** 竖屏 Inset 控制view */
@@ -117,8 +119,6 @@ public class PlayerControlView extends FrameLayout implements IPlayerControlView
 
         setDescendantFocusability(FOCUS_AFTER_DESCENDANTS);
 
-        mFormatBuilder = new StringBuilder();
-        mFormatter = new Formatter(mFormatBuilder, Locale.getDefault());
         componentListener = new ComponentListener();
 
         PlayerVisibilityUtils.setVisibilityAnimateProvider(this, sMaskProvider);
@@ -216,11 +216,13 @@ public class PlayerControlView extends FrameLayout implements IPlayerControlView
         }
 
         mPositionView = mControlView.findViewById(R.id.player_control_position);
+        mPositionTextCache.invalidate();
         if (mPositionView != null) {
             mPositionView.setOnClickListener(componentListener);
         }
 
         mDurationView = mControlView.findViewById(R.id.player_control_duration);
+        mDurationTextCache.invalidate();
         if (mDurationView != null) {
             mDurationView.setOnClickListener(componentListener);
         }
@@ -229,6 +231,17 @@ public class PlayerControlView extends FrameLayout implements IPlayerControlView
         if (mProgressBar != null) {
             mProgressBar.setOnSeekBarChangeListener(componentListener);
             mProgressBar.setMax(PROGRESS_BAR_MAX);
+            mProgressBar.removeOnLayoutChangeListener(componentListener);
+            mProgressBar.addOnLayoutChangeListener(componentListener);
+        }
+
+        if (mSeekPreviewHelper != null) {
+            mSeekPreviewHelper.onSeekStop();
+        }
+        ImageView previewView = mControlView.findViewById(R.id.player_control_preview);
+        mSeekPreviewHelper = previewView == null ? null : new SeekPreviewHelper(previewView);
+        if (mSeekPreviewHelper != null) {
+            mSeekPreviewHelper.setProvider(mSeekPreviewProvider);
         }
 
         mIsLocking = false; // reset
@@ -298,6 +311,7 @@ public class PlayerControlView extends FrameLayout implements IPlayerControlView
             this.mPlayer.removeVideoStateListener(componentListener);
         }
         this.mPlayer = player;
+        mScrubSeekController.setPlayer(player);
         if (player != null) {
             player.addVideoStateListener(componentListener);
         }
@@ -451,10 +465,58 @@ public class PlayerControlView extends FrameLayout implements IPlayerControlView
         updateAll();
     }
 
+    @Override
+    protected void onWindowVisibilityChanged(int visibility) {
+        super.onWindowVisibilityChanged(visibility);
+        // 不可见的时候 停止刷新进度.
+        if (visibility == VISIBLE) {
+            updateProgress();
+        } else {
+            removeCallbacks(updateProgressAction);
+        }
+    }
+
+    /**
+     * 设置当前的播放速度, 进度刷新的频率会随之缩放.
+     */
+    public void setPlaybackSpeed(float speed) {
+        mProgressScheduler.setPlaybackSpeed(speed);
+    }
+
+    /**
+     * 设置拖动进度条时的预览图来源, 需要布局中有 id 为 player_control_preview 的 ImageView.
+     * provider 的生命周期由调用方管理, 不再使用时需要调用 {@link ISeekPreviewProvider#release()}.
+     */
+    public void setSeekPreviewProvider(@Nullable ISeekPreviewProvider provider) {
+        mSeekPreviewProvider = provider;
+        if (mSeekPreviewHelper != null) {
+            mSeekPreviewHelper.setProvider(provider);
+        }
+    }
+
+    /**
+     * 拖动进度条的过程中是否 seek, 默认关闭 只在松手时 seek.
+     * 开启后拖动中按照关键帧模式 seek 并限制频率, 松手时再精确 seek 一次.
+     */
+    public void setSeekWhileScrubbing(boolean enabled) {
+        mScrubSeekController.setEnabled(enabled);
+    }
+
+    /**
+     * @return 拖动进度条时的 seek 节流, 可以调整间隔和 seek 模式
+     */
+    public @NonNull ScrubSeekController getScrubSeekController() {
+        return mScrubSeekController;
+    }
+
     @Override
     protected void onDetachedFromWindow() {
         super.onDetachedFromWindow();
         isAttachedToWindow = false;
+        mScrubSeekController.cancel();
+        if (mSeekPreviewHelper != null) {
+            mSeekPreviewHelper.onSeekStop();
+        }
         removeCallbacks(updateProgressAction);
         removeCallbacks(hideAction);
         hide();
@@ -529,17 +591,16 @@ public class PlayerControlView extends FrameLayout implements IPlayerControlView
     }
 
     private void updateProgress() {
-        if (!isVisible() || !isAttachedToWindow) {
+        removeCallbacks(updateProgressAction);
+        if (!isVisible() || !isAttachedToWindow || getWindowVisibility() != VISIBLE) {
             return;
         }
         long duration = mPlayer == null ? 0 : mPlayer.getDuration();
         long position = mPlayer == null ? 0 : mPlayer.getCurrentPosition();
         int bufferPercentage = mPlayer == null ? 0 : mPlayer.getBufferPercentage();
-        if (mDurationView != null) {
-            mDurationView.setText(stringForTime(duration));
-        }
-        if (mPositionView != null && !dragging) {
-            mPositionView.setText(stringForTime(position));
+        mDurationTextCache.setTime(mDurationView, duration);
+        if (!dragging) {
+            mPositionTextCache.setTime(mPositionView, position);
         }
         if (mProgressBar != null) {
             if (duration > 0) {
@@ -548,34 +609,15 @@ public class PlayerControlView extends FrameLayout implements IPlayerControlView
             }
             mProgressBar.setSecondaryProgress(bufferPercentage * 10);
         }
-        removeCallbacks(updateProgressAction);
         // Schedule an update if necessary.
         int playState = mPlayer == null ? IPlayer.STATE_IDLE : mPlayer.getCurrentPlayerState();
         switch (playState) {
             case IPlayer.STATE_PLAYING:
-                postDelayed(updateProgressAction, DEFAULT_UPDATE_PROGRESS_MS);
+                postDelayed(updateProgressAction, mProgressScheduler.computeDelayMs(position, duration));
                 break;
         }
     }
 
-
-    private String stringForTime(long timeMs) {
-        mFormatBuilder.setLength(0);
-        if (timeMs < 0) {
-            return (mFormatter.format("%02d:%02d", 0, 0).toString());
-        }
-        long totalSeconds = timeMs / 1000;
-        long seconds = totalSeconds % 60;
-        long minutes = (totalSeconds / 60) % 60;
-        long hours = totalSeconds / 3600;
-
-        if (hours > 0) {
-            return (mFormatter.format("%d:%02d:%02d", hours, minutes, seconds).toString());
-        } else {
-            return (mFormatter.format("%02d:%02d", minutes, seconds).toString());
-        }
-    }
-
     private long positionValue(int progress) {
         long duration = mPlayer == null ? 0 : mPlayer.getDuration();
         return duration == 0 ? 0 : ((duration * progress) / PROGRESS_BAR_MAX);
@@ -583,7 +625,14 @@ public class PlayerControlView extends FrameLayout implements IPlayerControlView
 
 
     private final class ComponentListener implements IVideoStateListener,
-            SeekBar.OnSeekBarChangeListener, OnClickListener {
+            SeekBar.OnSeekBarChangeListener, OnClickListener, OnLayoutChangeListener {
+        @Override
+        public void onLayoutChange(View v, int left, int top, int right, int bottom,
+                                   int oldLeft, int oldTop, int oldRight, int oldBottom) {
+            // 进度条可以移动的像素宽度
+            mProgressScheduler.setBarWidth(v.getWidth() - v.getPaddingLeft() - v.getPaddingRight());
+        }
+
         @Override
         public void onClick(View v) {
             // 点击重置隐藏时长
@@ -627,8 +676,13 @@ public class PlayerControlView extends FrameLayout implements IPlayerControlView
 
         @Override
         public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
-            if (fromUser && mPositionView != null) {
-                mPositionView.setText(stringForTime(positionValue(progress)));
+            if (fromUser) {
+                long position = positionValue(progress);
+                mPositionTextCache.setTime(mPositionView, position);
+                if (mSeekPreviewHelper != null) {
+                    mSeekPreviewHelper.onSeekMove(position, mPlayer == null ? 0 : mPlayer.getDuration());
+                }
+                mScrubSeekController.onScrubMove(position);
             }
         }
 
@@ -636,14 +690,20 @@ public class PlayerControlView extends FrameLayout implements IPlayerControlView
         public void onStartTrackingTouch(SeekBar seekBar) {
             removeCallbacks(hideAction);
             dragging = true;
+            mScrubSeekController.onScrubStart();
+            if (mSeekPreviewHelper != null) {
+                mSeekPreviewHelper.onSeekStart(positionValue(seekBar.getProgress()),
+                        mPlayer == null ? 0 : mPlayer.getDuration());
+            }
         }
 
         @Override
         public void onStopTrackingTouch(SeekBar seekBar) {
             dragging = false;
-            if (mPlayer != null) {
-                mPlayer.seekTo(positionValue(seekBar.getProgress()));
+            if (mSeekPreviewHelper != null) {
+                mSeekPreviewHelper.onSeekStop();
             }
+            mScrubSeekController.onScrubStop(positionValue(seekBar.getProgress()), false);
             hideAfterTimeout();
         }
 
@@ -0,0 +1,41 @@
+package com.vmovier.lib.view;
+
+/**
+ * 计算 {@link PlayerControlView} 下一次刷新进度的延时.
+ * 1. 对齐到播放位置的下一个整秒, 保证时间文字在跳秒的时候立刻刷新.
+ * 2. 视频很短, 进度条每个像素对应的时长小于 1s 时, 按像素刷新进度条.
+ * 3. 按播放速度缩放.
+ */
+class ProgressUpdateScheduler {
+    private static final long MIN_UPDATE_INTERVAL_MS = 50;
+    private static final long MAX_UPDATE_INTERVAL_MS = 1000;
+
+    private float mPlaybackSpeed = 1f;
+    private int mBarWidthPx = 0;
+
+    void setPlaybackSpeed(float speed) {
+        this.mPlaybackSpeed = speed <= 0 ? 1f : speed;
+    }
+
+    void setBarWidth(int barWidthPx) {
+        this.mBarWidthPx = barWidthPx;
+    }
+
+    /**
+     * @param position 当前播放位置
+     * @param duration 视频总时长
+     * @return 距离下一次刷新的时间 (实际时间, 已经按播放速度缩放)
+     */
+    long computeDelayMs(long position, long duration) {
+        // 距离下一个整秒的媒体时长.
+        long mediaDelayMs = MAX_UPDATE_INTERVAL_MS - (position % MAX_UPDATE_INTERVAL_MS);
+        if (duration > 0 && mBarWidthPx > 0) {
+            long msPerPixel = duration / mBarWidthPx;
+            if (msPerPixel < mediaDelayMs) {
+                mediaDelayMs = Math.max(msPerPixel, MIN_UPDATE_INTERVAL_MS);
+            }
+        }
+        long delayMs = (long) (mediaDelayMs / mPlaybackSpeed);
+        return Math.max(MIN_UPDATE_INTERVAL_MS, Math.min(MAX_UPDATE_INTERVAL_MS, delayMs));
+    }
+}
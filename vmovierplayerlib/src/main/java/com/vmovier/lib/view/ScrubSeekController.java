@@ -0,0 +1,167 @@
+package com.vmovier.lib.view;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.vmovier.lib.player.IPlayer;
+
+/**
+ * 拖动进度条过程中的 seek 节流.
+ * 拖动中按照关键帧模式 seek, 并且两次 seek 之间至少间隔 {@link #setMinSeekIntervalMs(long)},
+ * 间隔内的位置只保留最后一个, 到时间后补发. 松手时取消未发出的 seek, 按照播放器的 seek 模式 (默认精确) 发出最后一次.
+ * 画面可以跟随手指刷新, 又不会让解码器一直忙于精确 seek.
+ *
+ * 需要在主线程中调用.
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public class ScrubSeekController {
+    public static final long DEFAULT_MIN_SEEK_INTERVAL_MS = 250;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private @Nullable IPlayer mPlayer;
+    private boolean isEnabled = false;
+    private long mMinSeekIntervalMs = DEFAULT_MIN_SEEK_INTERVAL_MS;
+    private int mScrubSeekMode = IPlayer.SEEK_MODE_CLOSEST_SYNC;
+
+    private boolean isScrubbing = false;
+    private long mLastSeekTime;
+    private long mLastSeekPosition = -1;
+    private long mPendingPosition = -1;
+
+    private final Runnable mPendingSeekAction = new Runnable() {
+        @Override
+        public void run() {
+            if (mPendingPosition >= 0) {
+                long position = mPendingPosition;
+                mPendingPosition = -1;
+                scrubSeek(position);
+            }
+        }
+    };
+
+    public void setPlayer(@Nullable IPlayer player) {
+        if (mPlayer != player) {
+            cancel();
+        }
+        mPlayer = player;
+    }
+
+    /**
+     * @param enabled 拖动过程中是否 seek, 默认关闭, 只在松手时 seek
+     */
+    public void setEnabled(boolean enabled) {
+        this.isEnabled = enabled;
+        if (!enabled) {
+            cancelPendingSeek();
+        }
+    }
+
+    public boolean isEnabled() {
+        return isEnabled;
+    }
+
+    public void setMinSeekIntervalMs(long intervalMs) {
+        this.mMinSeekIntervalMs = Math.max(0, intervalMs);
+    }
+
+    /**
+     * @param seekMode 拖动过程中使用的 seek 模式, 默认 {@link IPlayer#SEEK_MODE_CLOSEST_SYNC}
+     */
+    public void setScrubSeekMode(@IPlayer.SeekMode int seekMode) {
+        this.mScrubSeekMode = seekMode;
+    }
+
+    public void onScrubStart() {
+        cancel();
+        isScrubbing = true;
+    }
+
+    public void onScrubMove(long position) {
+        if (!isScrubbing || !isEnabled || mPlayer == null) {
+            return;
+        }
+        long delay = mLastSeekTime + mMinSeekIntervalMs - SystemClock.uptimeMillis();
+        if (delay <= 0) {
+            cancelPendingSeek();
+            scrubSeek(position);
+        } else {
+            // 间隔内只保留最后一个位置.
+            if (mPendingPosition < 0) {
+                mHandler.postDelayed(mPendingSeekAction, delay);
+            }
+            mPendingPosition = position;
+        }
+    }
+
+    /**
+     * @param canceled 取消时不再 seek
+     */
+    public void onScrubStop(long position, boolean canceled) {
+        boolean wasScrubbing = isScrubbing;
+        cancel();
+        if (!wasScrubbing || canceled || mPlayer == null) {
+            return;
+        }
+        mPlayer.seekTo(position);
+    }
+
+    /**
+     * 取消还没有发出的 seek, 结束本次拖动.
+     */
+    public void cancel() {
+        isScrubbing = false;
+        mLastSeekTime = 0;
+        mLastSeekPosition = -1;
+        cancelPendingSeek();
+    }
+
+    private void cancelPendingSeek() {
+        mPendingPosition = -1;
+        mHandler.removeCallbacks(mPendingSeekAction);
+    }
+
+    private void scrubSeek(long position) {
+        if (mPlayer == null || position == mLastSeekPosition) {
+            return;
+        }
+        mLastSeekPosition = position;
+        mLastSeekTime = SystemClock.uptimeMillis();
+        mPlayer.seekTo(position, mScrubSeekMode);
+    }
+
+    /**
+     * 松手时的 seek 由这里发出, delegate 中不需要再调用 seekTo.
+     * @param delegate 原来的 listener, 所有回调都会继续转发给它
+     * @return 设置给 {@link VMovierTimeBar#setListener(VMovierTimeBar.OnScrubListener)} 的 listener
+     */
+    public @NonNull VMovierTimeBar.OnScrubListener wrapScrubListener(@Nullable final VMovierTimeBar.OnScrubListener delegate) {
+        return new VMovierTimeBar.OnScrubListener() {
+            @Override
+            public void onScrubStart(VMovierTimeBar timeBar, long position) {
+                ScrubSeekController.this.onScrubStart();
+                if (delegate != null) {
+                    delegate.onScrubStart(timeBar, position);
+                }
+            }
+
+            @Override
+            public void onScrubMove(VMovierTimeBar timeBar, long position) {
+                ScrubSeekController.this.onScrubMove(position);
+                if (delegate != null) {
+                    delegate.onScrubMove(timeBar, position);
+                }
+            }
+
+            @Override
+            public void onScrubStop(VMovierTimeBar timeBar, long position, boolean canceled) {
+                ScrubSeekController.this.onScrubStop(position, canceled);
+                if (delegate != null) {
+                    delegate.onScrubStop(timeBar, position, canceled);
+                }
+            }
+        };
+    }
+}
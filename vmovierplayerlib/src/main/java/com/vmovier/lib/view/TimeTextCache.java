@@ -0,0 +1,72 @@
+package com.vmovier.lib.view;
+
+import android.widget.TextView;
+
+/**
+ * 缓存格式化好的时间文字 (mm:ss 或者 h:mm:ss), 秒数没有变化时不再重新设置.
+ * 文字写入复用的 char 数组, 通过 {@link TextView#setText(char[], int, int)} 设置, 刷新过程中不创建新的对象.
+ * 每个 TextView 需要单独的实例.
+ */
+class TimeTextCache {
+    // 最长为 "2562047788015:59:59", 20 个字符足够.
+    private final char[] mChars = new char[20];
+    private int mLength = 0;
+    private long mLastSeconds = Long.MIN_VALUE;
+
+    /**
+     * @param textView 为空时什么都不做
+     * @param timeMs 需要显示的时间
+     */
+    void setTime(TextView textView, long timeMs) {
+        if (textView == null) {
+            return;
+        }
+        long totalSeconds = timeMs < 0 ? 0 : timeMs / 1000;
+        if (totalSeconds == mLastSeconds) {
+            return;
+        }
+        mLastSeconds = totalSeconds;
+        format(totalSeconds);
+        textView.setText(mChars, 0, mLength);
+    }
+
+    /**
+     * 下一次 setTime 时强制刷新, 比如 TextView 被替换了.
+     */
+    void invalidate() {
+        mLastSeconds = Long.MIN_VALUE;
+    }
+
+    private void format(long totalSeconds) {
+        long seconds = totalSeconds % 60;
+        long minutes = (totalSeconds / 60) % 60;
+        long hours = totalSeconds / 3600;
+        mLength = 0;
+        if (hours > 0) {
+            appendNumber(hours);
+            mChars[mLength++] = ':';
+        }
+        appendTwoDigits(minutes);
+        mChars[mLength++] = ':';
+        appendTwoDigits(seconds);
+    }
+
+    private void appendTwoDigits(long value) {
+        mChars[mLength++] = (char) ('0' + value / 10);
+        mChars[mLength++] = (char) ('0' + value % 10);
+    }
+
+    private void appendNumber(long value) {
+        int start = mLength;
+        do {
+            mChars[mLength++] = (char) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        // 反转
+        for (int i = start, j = mLength - 1; i < j; i++, j--) {
+            char c = mChars[i];
+            mChars[i] = mChars[j];
+            mChars[j] = c;
+        }
+    }
+}
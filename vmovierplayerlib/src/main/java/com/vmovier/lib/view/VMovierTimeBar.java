@@ -189,6 +189,10 @@ public class VMovierTimeBar extends View {
         update();
     }
 
+    public long getDuration() {
+        return duration;
+    }
+
     public void showThumb() {
         scrubberPaint.setAlpha(255);
         update();
@@ -0,0 +1,89 @@
+package com.vmovier.lib.view;
+
+import com.vmovier.lib.player.IPlayer;
+
+/**
+ * 根据渲染 View 的像素大小计算视频分辨率的上限, 按照常见的档位 (240p ~ 1080p) 取整.
+ * 变大时立即提高档位, 变小时需要比下一档再小 {@link #DOWNGRADE_RATIO} 才降低, 避免在两档之间来回切换.
+ * 每个 View 需要单独的实例, 在主线程中调用.
+ */
+class VideoSizeCap {
+    // 按短边分档, 超过最高档不再限制.
+    private static final int[] LEVELS = {240, 360, 480, 720, 1080};
+    private static final float DOWNGRADE_RATIO = 0.8f;
+
+    private int mLevel = -1; // -1 表示还没有计算过
+    private int mMaxWidth = IPlayer.VIDEO_SIZE_UNLIMITED;
+    private int mMaxHeight = IPlayer.VIDEO_SIZE_UNLIMITED;
+
+    /**
+     * @return 上限是否发生了变化
+     */
+    boolean update(int viewWidth, int viewHeight) {
+        if (viewWidth <= 0 || viewHeight <= 0) {
+            return false;
+        }
+        int shortSide = Math.min(viewWidth, viewHeight);
+        int level = levelOf(shortSide);
+        if (mLevel >= 0 && level < mLevel && shortSide >= LEVELS[mLevel - 1] * DOWNGRADE_RATIO) {
+            // 只比当前档位的下一档稍小, 保持当前档位.
+            level = mLevel;
+        }
+        boolean isLandscape = viewWidth >= viewHeight;
+        int maxWidth;
+        int maxHeight;
+        if (level >= LEVELS.length) {
+            maxWidth = IPlayer.VIDEO_SIZE_UNLIMITED;
+            maxHeight = IPlayer.VIDEO_SIZE_UNLIMITED;
+        } else {
+            int levelShort = LEVELS[level];
+            int levelLong = levelShort * 16 / 9;
+            maxWidth = isLandscape ? levelLong : levelShort;
+            maxHeight = isLandscape ? levelShort : levelLong;
+        }
+        mLevel = level;
+        if (maxWidth == mMaxWidth && maxHeight == mMaxHeight) {
+            return false;
+        }
+        mMaxWidth = maxWidth;
+        mMaxHeight = maxHeight;
+        return true;
+    }
+
+    /**
+     * 不再限制, 比如切换到了全屏.
+     */
+    boolean clear() {
+        mLevel = LEVELS.length;
+        if (mMaxWidth == IPlayer.VIDEO_SIZE_UNLIMITED && mMaxHeight == IPlayer.VIDEO_SIZE_UNLIMITED) {
+            return false;
+        }
+        mMaxWidth = IPlayer.VIDEO_SIZE_UNLIMITED;
+        mMaxHeight = IPlayer.VIDEO_SIZE_UNLIMITED;
+        return true;
+    }
+
+    void reset() {
+        mLevel = -1;
+        mMaxWidth = IPlayer.VIDEO_SIZE_UNLIMITED;
+        mMaxHeight = IPlayer.VIDEO_SIZE_UNLIMITED;
+    }
+
+    int getMaxWidth() {
+        return mMaxWidth;
+    }
+
+    int getMaxHeight() {
+        return mMaxHeight;
+    }
+
+    // 能覆盖该短边的最小档位.
+    private static int levelOf(int shortSide) {
+        for (int i = 0; i < LEVELS.length; i++) {
+            if (shortSide <= LEVELS[i]) {
+                return i;
+            }
+        }
+        return LEVELS.length;
+    }
+}
@@ -0,0 +1,191 @@
+package com.vmovier.lib.view.preview;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v4.util.LruCache;
+
+import com.vmovier.lib.utils.PlayerLog;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 预览图的公共逻辑: 按时间分桶, 按字节数限制的 LRU 内存缓存, 在后台线程解码.
+ * 子类只需要实现 {@link #decodePreview(long)}.
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public abstract class AbstractSeekPreviewProvider implements ISeekPreviewProvider {
+    private static final String TAG = AbstractSeekPreviewProvider.class.getSimpleName();
+
+    private static final int MSG_DECODE = 1;
+    private static final int MSG_RELEASE = 2;
+
+    /** 默认的分桶时长 */
+    public static final long DEFAULT_BUCKET_MS = 2000;
+    /** 默认的内存缓存大小 */
+    public static final int DEFAULT_MAX_CACHE_BYTES = 4 * 1024 * 1024;
+
+    private final long mBucketMs;
+    private final LruCache<Long, Bitmap> mCache;
+    private final HandlerThread mDecodeThread;
+    private final Handler mDecodeHandler;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    // cancel 和 release 时 +1, 回调前发现不一致就丢弃.
+    private final AtomicInteger mGeneration = new AtomicInteger();
+    private volatile boolean isReleased = false;
+
+    /**
+     * @param bucketMs 分桶时长, 同一个桶内的位置共用一张预览图
+     * @param maxCacheBytes 内存缓存的最大字节数
+     */
+    protected AbstractSeekPreviewProvider(long bucketMs, int maxCacheBytes) {
+        this.mBucketMs = bucketMs > 0 ? bucketMs : DEFAULT_BUCKET_MS;
+        this.mCache = new LruCache<Long, Bitmap>(maxCacheBytes) {
+            @Override
+            protected int sizeOf(Long key, Bitmap value) {
+                return value.getByteCount();
+            }
+        };
+        mDecodeThread = new HandlerThread("seek_preview", android.os.Process.THREAD_PRIORITY_BACKGROUND);
+        mDecodeThread.start();
+        mDecodeHandler = new DecodeHandler(mDecodeThread.getLooper());
+    }
+
+    /**
+     * 在后台线程调用, 解码某个桶的预览图.
+     * @param bucketMs 桶的起始时间, 由 {@link #toBucket(long)} 计算
+     * @return 解码失败返回 null
+     */
+    protected abstract @Nullable Bitmap decodePreview(long bucketMs);
+
+    /**
+     * 在后台线程调用, 每次解码之前调用. 子类可以在这里加载 {@link #toBucket(long)} 需要的数据,
+     * 之后重新计算桶, 保证缓存使用的 key 和之后查询时一致.
+     */
+    protected void onPrepareDecode() {
+    }
+
+    /**
+     * 在后台线程调用, 释放解码用到的资源.
+     */
+    protected void onRelease() {
+    }
+
+    /**
+     * 计算某个位置所在的桶, 默认按固定时长分桶.
+     */
+    protected long toBucket(long positionMs) {
+        return Math.max(0, positionMs) / mBucketMs * mBucketMs;
+    }
+
+    public long getBucketMs() {
+        return mBucketMs;
+    }
+
+    @Override
+    public @Nullable Bitmap getCachedPreview(long positionMs) {
+        return mCache.get(toBucket(positionMs));
+    }
+
+    @Override
+    public void requestPreview(long positionMs, @NonNull Callback callback) {
+        if (isReleased) {
+            return;
+        }
+        Bitmap bitmap = getCachedPreview(positionMs);
+        if (bitmap != null) {
+            callback.onPreviewLoaded(positionMs, bitmap);
+            return;
+        }
+        // 拖动过程中只关心最新的位置.
+        mDecodeHandler.removeMessages(MSG_DECODE);
+        Request request = new Request(positionMs, callback);
+        mDecodeHandler.obtainMessage(MSG_DECODE, mGeneration.get(), 0, request).sendToTarget();
+    }
+
+    @Override
+    public void cancel() {
+        mGeneration.incrementAndGet();
+        mDecodeHandler.removeMessages(MSG_DECODE);
+    }
+
+    @Override
+    public void release() {
+        if (isReleased) {
+            return;
+        }
+        isReleased = true;
+        cancel();
+        mDecodeHandler.sendEmptyMessage(MSG_RELEASE);
+        // 正在显示的 Bitmap 可能还在使用, 这里不主动 recycle.
+        mCache.evictAll();
+    }
+
+    private boolean isCanceled(int generation) {
+        return isReleased || generation != mGeneration.get();
+    }
+
+    private static class Request {
+        final long positionMs;
+        final Callback callback;
+
+        Request(long positionMs, Callback callback) {
+            this.positionMs = positionMs;
+            this.callback = callback;
+        }
+    }
+
+    private class DecodeHandler extends Handler {
+        DecodeHandler(Looper looper) {
+            super(looper);
+        }
+
+        @Override
+        public void handleMessage(Message msg) {
+            switch (msg.what) {
+                case MSG_DECODE:
+                    final int generation = msg.arg1;
+                    final Request request = (Request) msg.obj;
+                    if (isCanceled(generation)) {
+                        return;
+                    }
+                    try {
+                        onPrepareDecode();
+                    } catch (RuntimeException e) {
+                        PlayerLog.w(TAG, "prepare decode failed " + e);
+                    }
+                    long bucketMs = toBucket(request.positionMs);
+                    Bitmap bitmap = mCache.get(bucketMs);
+                    if (bitmap == null) {
+                        try {
+                            bitmap = decodePreview(bucketMs);
+                        } catch (RuntimeException | OutOfMemoryError e) {
+                            PlayerLog.w(TAG, "decode preview failed " + bucketMs + " , " + e);
+                        }
+                        if (bitmap == null) {
+                            return;
+                        }
+                        mCache.put(bucketMs, bitmap);
+                    }
+                    final Bitmap result = bitmap;
+                    mMainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (!isCanceled(generation)) {
+                                request.callback.onPreviewLoaded(request.positionMs, result);
+                            }
+                        }
+                    });
+                    break;
+                case MSG_RELEASE:
+                    onRelease();
+                    mDecodeThread.quit();
+                    break;
+            }
+        }
+    }
+}
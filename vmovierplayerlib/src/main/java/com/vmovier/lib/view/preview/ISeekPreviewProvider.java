@@ -0,0 +1,41 @@
+package com.vmovier.lib.view.preview;
+
+import android.graphics.Bitmap;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * 拖动进度条时的预览图来源.
+ * 预览图按时间分桶缓存, 同一个桶内的位置共用一张图. 解码在后台线程进行, 回调在主线程.
+ */
+@SuppressWarnings("unused")
+public interface ISeekPreviewProvider {
+
+    interface Callback {
+        /**
+         * 预览图加载完成, 在主线程回调.
+         * @param positionMs 请求时的位置
+         */
+        void onPreviewLoaded(long positionMs, @NonNull Bitmap bitmap);
+    }
+
+    /**
+     * @return 内存缓存中 该位置所在桶的预览图, 没有时返回 null
+     */
+    @Nullable Bitmap getCachedPreview(long positionMs);
+
+    /**
+     * 异步加载该位置的预览图. 连续请求时只保留最后一次, 之前还没开始解码的请求会被丢弃.
+     */
+    void requestPreview(long positionMs, @NonNull Callback callback);
+
+    /**
+     * 取消还没有回调的请求.
+     */
+    void cancel();
+
+    /**
+     * 释放后台线程和缓存, 之后该对象不可再使用.
+     */
+    void release();
+}
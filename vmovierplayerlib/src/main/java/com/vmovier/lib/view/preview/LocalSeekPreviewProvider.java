@@ -0,0 +1,97 @@
+package com.vmovier.lib.view.preview;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.media.MediaMetadataRetriever;
+import android.net.Uri;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.vmovier.lib.player.VideoViewDataSource;
+import com.vmovier.lib.utils.PlayerLog;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 没有服务端提供的缩略图时, 用 {@link MediaMetadataRetriever} 从视频本身抽取关键帧作为预览图.
+ * 只取离目标位置最近的关键帧 (OPTION_CLOSEST_SYNC), 不需要解码到精确的那一帧, 速度快很多.
+ * 网络视频每次抽帧都会发起请求, 分桶不宜过小.
+ */
+@SuppressWarnings("unused")
+public class LocalSeekPreviewProvider extends AbstractSeekPreviewProvider {
+    private static final String TAG = LocalSeekPreviewProvider.class.getSimpleName();
+    /** 默认的预览图宽度 */
+    public static final int DEFAULT_PREVIEW_WIDTH = 320;
+
+    private final Context mAppContext;
+    private final Uri mUri;
+    private final Map<String, String> mHeaders;
+    private final int mPreviewWidth;
+    // 只在解码线程中访问.
+    private MediaMetadataRetriever mRetriever;
+    private boolean isRetrieverFailed = false;
+
+    public LocalSeekPreviewProvider(@NonNull Context context, @NonNull VideoViewDataSource dataSource) {
+        this(context, dataSource, DEFAULT_BUCKET_MS, DEFAULT_PREVIEW_WIDTH, DEFAULT_MAX_CACHE_BYTES);
+    }
+
+    /**
+     * @param previewWidth 预览图缩放后的宽度, 高度按比例计算
+     */
+    public LocalSeekPreviewProvider(@NonNull Context context, @NonNull VideoViewDataSource dataSource,
+                                    long bucketMs, int previewWidth, int maxCacheBytes) {
+        super(bucketMs, maxCacheBytes);
+        this.mAppContext = context.getApplicationContext();
+        this.mUri = dataSource.uri;
+        this.mHeaders = dataSource.headers == null ? new HashMap<String, String>() : new HashMap<>(dataSource.headers);
+        this.mPreviewWidth = previewWidth;
+    }
+
+    @Override
+    protected @Nullable Bitmap decodePreview(long bucketMs) {
+        MediaMetadataRetriever retriever = getRetriever();
+        if (retriever == null) {
+            return null;
+        }
+        Bitmap frame = retriever.getFrameAtTime(bucketMs * 1000, MediaMetadataRetriever.OPTION_CLOSEST_SYNC);
+        if (frame == null || frame.getWidth() <= mPreviewWidth) {
+            return frame;
+        }
+        int height = Math.max(1, frame.getHeight() * mPreviewWidth / frame.getWidth());
+        Bitmap scaled = Bitmap.createScaledBitmap(frame, mPreviewWidth, height, true);
+        if (scaled != frame) {
+            frame.recycle();
+        }
+        return scaled;
+    }
+
+    private @Nullable MediaMetadataRetriever getRetriever() {
+        if (mRetriever != null || isRetrieverFailed || mUri == null) {
+            return mRetriever;
+        }
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            String scheme = mUri.getScheme();
+            if ("http".equalsIgnoreCase(scheme) || "https".equalsIgnoreCase(scheme)) {
+                retriever.setDataSource(mUri.toString(), mHeaders);
+            } else {
+                retriever.setDataSource(mAppContext, mUri);
+            }
+            mRetriever = retriever;
+        } catch (RuntimeException e) {
+            PlayerLog.w(TAG, "setDataSource failed " + mUri + " , " + e.getMessage());
+            isRetrieverFailed = true;
+            retriever.release();
+        }
+        return mRetriever;
+    }
+
+    @Override
+    protected void onRelease() {
+        if (mRetriever != null) {
+            mRetriever.release();
+            mRetriever = null;
+        }
+    }
+}
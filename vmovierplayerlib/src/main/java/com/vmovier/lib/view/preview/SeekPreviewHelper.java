@@ -0,0 +1,138 @@
+package com.vmovier.lib.view.preview;
+
+import android.graphics.Bitmap;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.view.View;
+import android.widget.ImageView;
+
+import com.vmovier.lib.view.VMovierTimeBar;
+
+/**
+ * 把 {@link ISeekPreviewProvider} 的预览图显示到 ImageView 上, 拖动开始时显示, 结束时隐藏.
+ * 预览图会跟随拖动的位置在父布局中水平移动.
+ * {@link com.vmovier.lib.view.PlayerControlView} 已经内置, 使用 {@link VMovierTimeBar} 时可以通过
+ * {@link #wrapScrubListener(VMovierTimeBar.OnScrubListener)} 接入.
+ */
+@SuppressWarnings("unused")
+public class SeekPreviewHelper implements ISeekPreviewProvider.Callback {
+    private final ImageView mPreviewView;
+    private @Nullable ISeekPreviewProvider mProvider;
+    private boolean isSeeking = false;
+
+    public SeekPreviewHelper(@NonNull ImageView previewView) {
+        this.mPreviewView = previewView;
+    }
+
+    public void setProvider(@Nullable ISeekPreviewProvider provider) {
+        if (mProvider != null) {
+            mProvider.cancel();
+        }
+        mProvider = provider;
+        if (provider == null) {
+            hidePreview();
+        }
+    }
+
+    public @Nullable ISeekPreviewProvider getProvider() {
+        return mProvider;
+    }
+
+    public void onSeekStart(long positionMs, long durationMs) {
+        if (mProvider == null) {
+            return;
+        }
+        isSeeking = true;
+        mPreviewView.setImageDrawable(null);
+        onSeekMove(positionMs, durationMs);
+    }
+
+    public void onSeekMove(long positionMs, long durationMs) {
+        if (!isSeeking || mProvider == null) {
+            return;
+        }
+        updateTranslation(positionMs, durationMs);
+        Bitmap bitmap = mProvider.getCachedPreview(positionMs);
+        if (bitmap != null) {
+            showPreview(bitmap);
+        } else {
+            // 没有缓存时先保留上一张, 避免闪烁.
+            mProvider.requestPreview(positionMs, this);
+        }
+    }
+
+    public void onSeekStop() {
+        if (!isSeeking) {
+            return;
+        }
+        isSeeking = false;
+        if (mProvider != null) {
+            mProvider.cancel();
+        }
+        hidePreview();
+    }
+
+    @Override
+    public void onPreviewLoaded(long positionMs, @NonNull Bitmap bitmap) {
+        if (isSeeking) {
+            showPreview(bitmap);
+        }
+    }
+
+    private void showPreview(Bitmap bitmap) {
+        mPreviewView.setImageBitmap(bitmap);
+        if (mPreviewView.getVisibility() != View.VISIBLE) {
+            mPreviewView.setVisibility(View.VISIBLE);
+        }
+    }
+
+    private void hidePreview() {
+        mPreviewView.setVisibility(View.GONE);
+        mPreviewView.setImageDrawable(null);
+    }
+
+    private void updateTranslation(long positionMs, long durationMs) {
+        View parent = (View) mPreviewView.getParent();
+        if (parent == null || durationMs <= 0) {
+            return;
+        }
+        int range = parent.getWidth() - parent.getPaddingLeft() - parent.getPaddingRight() - mPreviewView.getWidth();
+        if (range <= 0) {
+            return;
+        }
+        float fraction = Math.max(0, Math.min(1, (float) positionMs / durationMs));
+        mPreviewView.setTranslationX(fraction * range - mPreviewView.getLeft() + parent.getPaddingLeft());
+    }
+
+    /**
+     * @param delegate 原来的 listener, 所有回调都会继续转发给它
+     * @return 设置给 {@link VMovierTimeBar#setListener(VMovierTimeBar.OnScrubListener)} 的 listener
+     */
+    public @NonNull VMovierTimeBar.OnScrubListener wrapScrubListener(@Nullable final VMovierTimeBar.OnScrubListener delegate) {
+        return new VMovierTimeBar.OnScrubListener() {
+            @Override
+            public void onScrubStart(VMovierTimeBar timeBar, long position) {
+                onSeekStart(position, timeBar.getDuration());
+                if (delegate != null) {
+                    delegate.onScrubStart(timeBar, position);
+                }
+            }
+
+            @Override
+            public void onScrubMove(VMovierTimeBar timeBar, long position) {
+                onSeekMove(position, timeBar.getDuration());
+                if (delegate != null) {
+                    delegate.onScrubMove(timeBar, position);
+                }
+            }
+
+            @Override
+            public void onScrubStop(VMovierTimeBar timeBar, long position, boolean canceled) {
+                onSeekStop();
+                if (delegate != null) {
+                    delegate.onScrubStop(timeBar, position, canceled);
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,260 @@
+package com.vmovier.lib.view.preview;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.net.Uri;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.text.TextUtils;
+
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSourceInputStream;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.util.UriUtil;
+import com.google.android.exoplayer2.util.Util;
+import com.vmovier.lib.player.cache.MediaCache;
+import com.vmovier.lib.player.internal.PlayerNetwork;
+import com.vmovier.lib.utils.PlayerLog;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 服务端提供的缩略图轨道 (WebVTT), 每个 cue 对应一段时间和一张图片, 图片可以是雪碧图中的一块:
+ * <pre>
+ * 00:00:00.000 --> 00:00:05.000
+ * sprite_0.jpg#xywh=0,0,160,90
+ * </pre>
+ * 每个 cue 就是一个桶. 雪碧图通过 {@link BitmapRegionDecoder} 只解码需要的区域, 并且会经过 {@link MediaCache}.
+ * 需要先调用 {@link com.vmovier.lib.Player#init(android.content.Context)}.
+ */
+@SuppressWarnings("unused")
+public class SpriteSeekPreviewProvider extends AbstractSeekPreviewProvider {
+    private static final String TAG = SpriteSeekPreviewProvider.class.getSimpleName();
+
+    private static final String CUE_ARROW = "-->";
+    private static final Pattern XYWH_PATTERN = Pattern.compile("#xywh=(\\d+),(\\d+),(\\d+),(\\d+)$");
+    // 同时保留的雪碧图解码器数量
+    private static final int MAX_SPRITE_DECODERS = 3;
+
+    private final Uri mVttUri;
+    private final Map<String, String> mHeaders;
+    // 解码线程中写入, 主线程中读取 (toBucket).
+    private volatile List<Cue> mCues;
+    // 以下只在解码线程中访问.
+    private boolean isCuesLoaded = false;
+    private final Map<String, BitmapRegionDecoder> mDecoders =
+            new LinkedHashMap<String, BitmapRegionDecoder>(MAX_SPRITE_DECODERS, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Entry<String, BitmapRegionDecoder> eldest) {
+                    if (size() > MAX_SPRITE_DECODERS) {
+                        eldest.getValue().recycle();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+
+    public SpriteSeekPreviewProvider(@NonNull Uri vttUri, @Nullable Map<String, String> headers) {
+        this(vttUri, headers, DEFAULT_MAX_CACHE_BYTES);
+    }
+
+    public SpriteSeekPreviewProvider(@NonNull Uri vttUri, @Nullable Map<String, String> headers, int maxCacheBytes) {
+        super(DEFAULT_BUCKET_MS, maxCacheBytes);
+        this.mVttUri = vttUri;
+        this.mHeaders = headers;
+    }
+
+    /**
+     * 缩略图轨道加载完成之后, 以 cue 的开始时间作为桶.
+     */
+    @Override
+    protected long toBucket(long positionMs) {
+        List<Cue> cues = mCues;
+        if (cues == null || cues.isEmpty()) {
+            return super.toBucket(positionMs);
+        }
+        Cue cue = findCue(cues, positionMs);
+        return cue == null ? super.toBucket(positionMs) : cue.startMs;
+    }
+
+    /**
+     * 先加载缩略图轨道, 加载之前的请求也以 cue 的开始时间作为桶缓存.
+     */
+    @Override
+    protected void onPrepareDecode() {
+        if (!isCuesLoaded) {
+            isCuesLoaded = true;
+            mCues = loadCues();
+        }
+    }
+
+    @Override
+    protected @Nullable Bitmap decodePreview(long bucketMs) {
+        List<Cue> cues = mCues;
+        Cue cue = cues == null ? null : findCue(cues, bucketMs);
+        if (cue == null) {
+            return null;
+        }
+        BitmapRegionDecoder decoder = getDecoder(cue.imageUrl);
+        if (decoder == null) {
+            return null;
+        }
+        Rect region = cue.region != null ? cue.region : new Rect(0, 0, decoder.getWidth(), decoder.getHeight());
+        return decoder.decodeRegion(region, new BitmapFactory.Options());
+    }
+
+    @Override
+    protected void onRelease() {
+        for (BitmapRegionDecoder decoder : mDecoders.values()) {
+            decoder.recycle();
+        }
+        mDecoders.clear();
+    }
+
+    /**
+     * @return 最后一个开始时间不大于 positionMs 的 cue
+     */
+    private static @Nullable Cue findCue(List<Cue> cues, long positionMs) {
+        int low = 0;
+        int high = cues.size() - 1;
+        Cue result = null;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            Cue cue = cues.get(mid);
+            if (cue.startMs <= positionMs) {
+                result = cue;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return result != null ? result : cues.get(0);
+    }
+
+    private @Nullable BitmapRegionDecoder getDecoder(String imageUrl) {
+        BitmapRegionDecoder decoder = mDecoders.get(imageUrl);
+        if (decoder != null) {
+            return decoder;
+        }
+        byte[] data = load(MediaCache.buildDataSourceFactory(PlayerNetwork.buildDataSourceFactory(mHeaders)),
+                Uri.parse(imageUrl));
+        if (data == null) {
+            return null;
+        }
+        try {
+            decoder = BitmapRegionDecoder.newInstance(data, 0, data.length, false);
+        } catch (IOException e) {
+            PlayerLog.w(TAG, "decode sprite failed " + imageUrl + " , " + e.getMessage());
+            return null;
+        }
+        mDecoders.put(imageUrl, decoder);
+        return decoder;
+    }
+
+    private @Nullable List<Cue> loadCues() {
+        // 缩略图轨道不经过磁盘缓存, 服务端可能会更新.
+        byte[] data = load(PlayerNetwork.buildDataSourceFactory(mHeaders), mVttUri);
+        if (data == null) {
+            return null;
+        }
+        List<Cue> cues = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(data)));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int arrow = line.indexOf(CUE_ARROW);
+                if (arrow < 0) {
+                    continue;
+                }
+                long startMs = parseTimestamp(line.substring(0, arrow));
+                String text = reader.readLine();
+                if (startMs < 0 || TextUtils.isEmpty(text)) {
+                    continue;
+                }
+                cues.add(parseCue(startMs, text.trim()));
+            }
+        } catch (IOException e) {
+            PlayerLog.w(TAG, "parse vtt failed " + mVttUri + " , " + e.getMessage());
+            return null;
+        }
+        Collections.sort(cues);
+        PlayerLog.d(TAG, "load vtt " + mVttUri + " , cue count is " + cues.size());
+        return Collections.unmodifiableList(cues);
+    }
+
+    private Cue parseCue(long startMs, String text) {
+        Rect region = null;
+        String url = text;
+        Matcher matcher = XYWH_PATTERN.matcher(text);
+        if (matcher.find()) {
+            int x = Integer.parseInt(matcher.group(1));
+            int y = Integer.parseInt(matcher.group(2));
+            int w = Integer.parseInt(matcher.group(3));
+            int h = Integer.parseInt(matcher.group(4));
+            region = new Rect(x, y, x + w, y + h);
+            url = text.substring(0, matcher.start());
+        }
+        return new Cue(startMs, UriUtil.resolve(mVttUri.toString(), url), region);
+    }
+
+    /**
+     * 解析 hh:mm:ss.ttt 或者 mm:ss.ttt
+     * @return 毫秒, 格式错误返回 -1
+     */
+    private static long parseTimestamp(String timestamp) {
+        String[] parts = timestamp.trim().split("[:.]");
+        if (parts.length < 3) {
+            return -1;
+        }
+        try {
+            long ms = 0;
+            for (int i = 0; i < parts.length - 1; i++) {
+                ms = ms * 60 + Long.parseLong(parts[i]);
+            }
+            return ms * 1000 + Long.parseLong(parts[parts.length - 1]);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static @Nullable byte[] load(DataSource.Factory factory, Uri uri) {
+        DataSourceInputStream inputStream = new DataSourceInputStream(factory.createDataSource(), new DataSpec(uri));
+        try {
+            return Util.toByteArray(inputStream);
+        } catch (IOException e) {
+            PlayerLog.w(TAG, "load failed " + uri + " , " + e.getMessage());
+            return null;
+        } finally {
+            Util.closeQuietly(inputStream);
+        }
+    }
+
+    private static class Cue implements Comparable<Cue> {
+        final long startMs;
+        final String imageUrl;
+        final @Nullable Rect region;
+
+        Cue(long startMs, String imageUrl, @Nullable Rect region) {
+            this.startMs = startMs;
+            this.imageUrl = imageUrl;
+            this.region = region;
+        }
+
+        @Override
+        public int compareTo(@NonNull Cue o) {
+            return startMs < o.startMs ? -1 : (startMs == o.startMs ? 0 : 1);
+        }
+    }
+}